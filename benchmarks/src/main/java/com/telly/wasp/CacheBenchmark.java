@@ -0,0 +1,172 @@
+package com.telly.wasp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Get/put/evict mixes on {@link UpdateableLruCache}, sized like {@code BitmapHelper}'s in
+ * memory cache with a stand-in value instead of a Bitmap. Keys are drawn uniformly from a
+ * key space {@code 1 / hitRatio} times bigger than what fits, so the steady state hit ratio
+ * of plain LRU is roughly the given one.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+    /**
+     * Amount of values that fit, about a screenful of thumbnails times a few pages
+     */
+    private static final int CAPACITY = 512;
+    /**
+     * Bytes a stand-in value weighs, a 128x128 ARGB_8888 thumbnail
+     */
+    private static final long VALUE_SIZE = 128 * 128 * 4;
+    /**
+     * Length of the pregenerated key sequences, must be a power of two
+     */
+    private static final int SEQUENCE_LENGTH = 1 << 16;
+    private static final int SEQUENCE_MASK = SEQUENCE_LENGTH - 1;
+
+    @Param({"0.5", "0.9", "0.99"})
+    public double hitRatio;
+
+    /**
+     * "lru" for plain eviction or "tinylfu" for the default admission policy
+     */
+    @Param({"lru", "tinylfu"})
+    public String policy;
+
+    private UpdateableLruCache<String, Value> cache;
+    /**
+     * keys to get or put, drawn from the whole key space
+     */
+    private String[] mixed;
+    /**
+     * keys in the cache after warming it up
+     */
+    private String[] resident;
+    /**
+     * keys never seen, every put of them evicts
+     */
+    private String[] fresh;
+
+    @Setup
+    public void setUp() {
+        cache = new UpdateableLruCache<String, Value>(CAPACITY * VALUE_SIZE) {
+            @Override
+            protected long sizeOf(String key, Value value) {
+                return value.size;
+            }
+        };
+        if ("tinylfu".equals(policy)) {
+            cache.setAdmissionPolicy(new TinyLfuAdmissionPolicy<String>());
+        }
+
+        Random random = new Random(42);
+        int keySpace = (int) Math.ceil(CAPACITY / hitRatio);
+        mixed = new String[SEQUENCE_LENGTH];
+        fresh = new String[SEQUENCE_LENGTH];
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            mixed[i] = urlFor(random.nextInt(keySpace));
+            fresh[i] = urlFor(keySpace + i);
+        }
+        // warm up into the steady state
+        for (String key : mixed) {
+            getOrPut(cache, key);
+        }
+        resident = cache.snapshot().keySet().toArray(new String[0]);
+    }
+
+    private static String urlFor(int id) {
+        return "http://images.example.com/thumbnails/" + id + ".jpg";
+    }
+
+    private static Value getOrPut(UpdateableLruCache<String, Value> cache, String key) {
+        Value value = cache.get(key);
+        if (value == null) {
+            value = new Value(VALUE_SIZE);
+            cache.put(key, value);
+        }
+        return value;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Value getOrPut(Cursor cursor) {
+        return getOrPut(cache, mixed[cursor.next() & SEQUENCE_MASK]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Value getOrPutContended(Cursor cursor) {
+        return getOrPut(cache, mixed[cursor.next() & SEQUENCE_MASK]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Value getHit(Cursor cursor) {
+        return cache.get(resident[cursor.next() % resident.length]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Value getHitContended(Cursor cursor) {
+        return cache.get(resident[cursor.next() % resident.length]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Value putEvict(Cursor cursor) {
+        return cache.put(fresh[cursor.next() & SEQUENCE_MASK], new Value(VALUE_SIZE));
+    }
+
+    /**
+     * Position of each benchmark thread in the key sequences
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static final Random SEEDS = new Random(7);
+        private int index;
+
+        @Setup
+        public void setUp() {
+            synchronized (SEEDS) {
+                index = SEEDS.nextInt(SEQUENCE_LENGTH);
+            }
+        }
+
+        int next() {
+            return index++ & Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Stand-in for a Bitmap, only its weight matters to the cache
+     */
+    static final class Value {
+        final long size;
+
+        Value(long size) {
+            this.size = size;
+        }
+    }
+}
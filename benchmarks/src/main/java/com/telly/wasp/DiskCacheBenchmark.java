@@ -0,0 +1,106 @@
+package com.telly.wasp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups in a {@link DiskCache} holding small files in a temporary directory, hits include
+ * checking the file still exists and journaling the access
+ *
+ * @author evelio
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiskCacheBenchmark {
+    private static final int FILE_SIZE = 1024;
+
+    @Param({"100", "1000"})
+    public int entries;
+
+    private File directory;
+    private DiskCache disk;
+    private String[] uris;
+    private String[] missing;
+    private int index;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("wasp-benchmark", "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        disk = new DiskCache(directory, Long.MAX_VALUE);
+        uris = new String[entries];
+        missing = new String[entries];
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < entries; i++) {
+            uris[i] = "http://images.example.com/photos/" + i + ".jpg";
+            missing[i] = "http://images.example.com/missing/" + i + ".jpg";
+            File temp = disk.newTempFile();
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                output.write(content);
+            } finally {
+                output.close();
+            }
+            if (disk.commit(uris[i], temp) == null) {
+                throw new IOException("Unable to commit " + uris[i]);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        disk.close();
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private int next() {
+        return (index++ & Integer.MAX_VALUE) % entries;
+    }
+
+    @Benchmark
+    public File getHit() {
+        return disk.get(uris[next()]);
+    }
+
+    @Benchmark
+    public File getMiss() {
+        return disk.get(missing[next()]);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return disk.contains(uris[next()]);
+    }
+}
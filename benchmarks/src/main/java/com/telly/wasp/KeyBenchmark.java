@@ -0,0 +1,60 @@
+package com.telly.wasp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Derivation of the in memory cache key and the disk cache file name, both done for every
+ * bitmap asked for
+ *
+ * @author evelio
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyBenchmark {
+    private static final int URLS = 256; // power of two
+    private String[] urls;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        urls = new String[URLS];
+        for (int i = 0; i < URLS; i++) {
+            urls[i] = "http://images.example.com/users/" + (i * 7919) + "/avatar_normal.jpg?v=" + i;
+        }
+    }
+
+    private String nextUrl() {
+        return urls[index++ & (URLS - 1)];
+    }
+
+    @Benchmark
+    public String memoryKeyFullSize() {
+        return BitmapHelper.cacheKeyFor(nextUrl(), 0, 0);
+    }
+
+    @Benchmark
+    public String memoryKeyTargetSize() {
+        return BitmapHelper.cacheKeyFor(nextUrl(), 200, 200);
+    }
+
+    @Benchmark
+    public String diskFileName() {
+        return DiskCache.keyFor(nextUrl());
+    }
+}
@@ -0,0 +1,133 @@
+package com.telly.wasp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One load as seen by a {@link BitmapHelper.BitmapRef}: the sticky cache observer is set,
+ * some observers wait for the bitmap, get notified and are removed. Compared against the
+ * {@link Observable} based implementation it replaced.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationBenchmark {
+    /**
+     * views waiting for the same URL, e.g. an avatar shown on every row
+     */
+    @Param({"1", "8", "64"})
+    public int observers;
+
+    private Counter[] counters;
+    private Counter sticky;
+
+    @Setup
+    public void setUp() {
+        counters = new Counter[observers];
+        for (int i = 0; i < observers; i++) {
+            counters[i] = new Counter();
+        }
+        sticky = new Counter();
+    }
+
+    @Benchmark
+    public int listenerList() {
+        BitmapHelper.BitmapRef ref = new BitmapHelper.BitmapRef("http://images.example.com/avatar.jpg");
+        ref.setStickyObserver(sticky);
+        for (Counter counter : counters) {
+            ref.addObserver(counter);
+        }
+        ref.loaded(null);
+        return ref.countObservers();
+    }
+
+    @Benchmark
+    public int observable() {
+        ObservableRef ref = new ObservableRef();
+        ref.setStickyObserver(sticky);
+        for (Counter counter : counters) {
+            ref.addObserver(counter);
+        }
+        ref.loaded();
+        return ref.countObservers();
+    }
+
+    @Benchmark
+    public void baseline(Blackhole blackhole) {
+        blackhole.consume(new BitmapHelper.BitmapRef("http://images.example.com/avatar.jpg"));
+        blackhole.consume(new ObservableRef());
+    }
+
+    /**
+     * Notification as BitmapRef did it on top of Observable, tracking waiting observers
+     * aside to tell whether anyone but the sticky one needs the bitmap
+     */
+    private static class ObservableRef extends Observable {
+        private Observer stickyObserver;
+        private final List<Observer> waiting = new ArrayList<Observer>();
+
+        void setStickyObserver(Observer sticky) {
+            stickyObserver = sticky;
+            addObserver(sticky);
+        }
+
+        void loaded() {
+            setChanged();
+            notifyObservers();
+            deleteObservers();
+        }
+
+        @Override
+        public synchronized void addObserver(Observer observer) {
+            super.addObserver(observer);
+            if (observer != stickyObserver && !waiting.contains(observer)) {
+                waiting.add(observer);
+            }
+        }
+
+        @Override
+        public synchronized void deleteObservers() {
+            super.deleteObservers();
+            waiting.clear();
+            if (stickyObserver != null) {
+                addObserver(stickyObserver);
+            }
+        }
+    }
+
+    private static class Counter implements Observer, BitmapHelper.BitmapRef.Listener {
+        int count;
+
+        @Override
+        public void update(Observable observable, Object data) {
+            count++;
+        }
+
+        @Override
+        public void onBitmapLoaded(BitmapHelper.BitmapRef ref) {
+            count++;
+        }
+    }
+}
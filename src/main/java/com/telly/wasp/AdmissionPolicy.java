@@ -0,0 +1,29 @@
+package com.telly.wasp;
+
+/**
+ * Decides whether a new cache entry is worth more than the entry the cache would
+ * otherwise evict to make room for it.
+ * <p/>
+ * Calls are serialized by the cache, implementations do not need to be thread safe
+ * but must be cheap as they run while the cache is locked for writes.
+ *
+ * @param <K> type of cache keys
+ * @author evelio
+ * @version 1.0
+ */
+public interface AdmissionPolicy<K> {
+    /**
+     * Records an access to given key, either a hit or an insertion
+     *
+     * @param key accessed key
+     */
+    void record(K key);
+
+    /**
+     * @param candidate key of the entry that just started taking room in the cache
+     * @param victim    key of the least recently used entry
+     * @return true if candidate should stay and victim be evicted
+     *         false if candidate should be evicted instead
+     */
+    boolean admit(K candidate, K victim);
+}
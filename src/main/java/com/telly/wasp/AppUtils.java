@@ -11,6 +11,7 @@ import android.os.Build;
 final class AppUtils {
     private static final int SDK_HONEYCOMB_API_LEVEL = 11;
     private static final int SDK_NINE_API_LEVEL = 9;
+    private static final int SDK_FROYO_API_LEVEL = 8;
 
     /**
      * Determine if current SDK version/API Level is Honeycomb (11)
@@ -25,4 +26,8 @@ final class AppUtils {
     public static boolean isNinePlus() {
         return Build.VERSION.SDK_INT >= SDK_NINE_API_LEVEL;
     }
+
+    public static boolean isFroyoPlus() {
+        return Build.VERSION.SDK_INT >= SDK_FROYO_API_LEVEL;
+    }
 }
@@ -3,17 +3,29 @@ package com.telly.wasp;
 import android.graphics.Bitmap;
 import android.os.Handler;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Observable;
 
 /**
  * @author cristian
  * @version 1.0
  */
-public abstract class BaseBitmapObserver implements UrlHolder {
+public abstract class BaseBitmapObserver implements UrlHolder, BitmapHelper.BitmapRef.Listener {
 
     private String mUrl;
     private final Handler mHandler;
     private boolean mTakeUriIntoAccount = true;
+    private int mTargetWidth;
+    private int mTargetHeight;
+    private int mPriority = BitmapHelper.PRIORITY_NORMAL;
+    private List<Transformation> mTransformations = Collections.emptyList();
+    private boolean mPersistTransformed;
+    private boolean mPreview;
+    private String mPreviewUrl;
+    private int mPreviewWidth;
+    private int mPreviewHeight;
 
     protected BaseBitmapObserver(String url, Handler uiThreadHandler) {
         mUrl = url;
@@ -36,26 +48,191 @@ public abstract class BaseBitmapObserver implements UrlHolder {
         return mHandler;
     }
 
+    /**
+     * Bitmap references are no longer {@link Observable}s, see {@link #onBitmapLoaded}
+     */
     @Override
     public void update(Observable observable, Object data) {
-        if (!(observable instanceof BitmapHelper.BitmapRef)) {
-            return;
+        if (data instanceof BitmapHelper.BitmapRef) {
+            onBitmapLoaded((BitmapHelper.BitmapRef) data);
         }
-        final BitmapHelper.BitmapRef ref = (BitmapHelper.BitmapRef) observable;
+    }
 
+    @Override
+    public void onBitmapLoaded(BitmapHelper.BitmapRef ref) {
         final String refUri = ref.getUri();
         if (!mTakeUriIntoAccount || (refUri != null && refUri.equals(mUrl))) {
             final Bitmap bitmap = ref.getBitmap();
+            if (retainsBitmap()) {
+                ref.markEscaped();
+            }
             doLoad(ref, bitmap);
         }
     }
 
+    /**
+     * Notified once the preview of the bitmap is loaded, see {@link #setPreview(String, int, int)}
+     *
+     * @param url url of the bitmap the preview is for
+     * @param ref reference of the preview itself
+     */
+    void onPreviewLoaded(String url, BitmapHelper.BitmapRef ref) {
+        final Bitmap preview = ref.getBitmap();
+        if ((!mTakeUriIntoAccount || url.equals(getUrl())) && BitmapUtils.isBitmapValid(preview)) {
+            if (retainsBitmap()) {
+                ref.markEscaped();
+            }
+            doLoadPreview(ref, preview);
+        }
+    }
+
+    /**
+     * @return true if the bitmap given to {@link #doLoad} may be held for an unknown time,
+     *         hence it must never be reused for another image
+     */
+    boolean retainsBitmap() {
+        return true;
+    }
+
+    /**
+     * Polled from loading threads to find out whether a pending load is still wanted,
+     * once no observer of a URL needs it anymore its load is cancelled
+     *
+     * @param uri uri being loaded
+     * @return true if this observer still wants to be notified about given uri
+     */
+    boolean stillNeeds(String uri) {
+        return !mTakeUriIntoAccount || uri.equals(getUrl());
+    }
+
     public void setTakeUriIntoAccount(boolean takeUriIntoAccount) {
         mTakeUriIntoAccount = takeUriIntoAccount;
     }
 
+    /**
+     * Asks for the bitmap to be downsampled while decoding to roughly the given size, it
+     * will be at least as big as the target size unless the image itself is smaller.
+     * Bitmaps are cached per size, 0 (the default) means full size.
+     *
+     * @param width  width in pixels the bitmap will be shown at
+     * @param height height in pixels the bitmap will be shown at
+     */
+    public void setTargetSize(int width, int height) {
+        mTargetWidth = Math.max(0, width);
+        mTargetHeight = Math.max(0, height);
+    }
+
+    public int getTargetWidth() {
+        return mTargetWidth;
+    }
+
+    public int getTargetHeight() {
+        return mTargetHeight;
+    }
+
+    /**
+     * Asks for the bitmap to be transformed once decoded, e.g. cropped and then rounded.
+     * Transformed bitmaps are cached on their own, under the keys of the transformations,
+     * so showing it again does not transform it again.
+     *
+     * @param transformations applied in order, none (the default) to show the bitmap as is
+     */
+    public void setTransformations(Transformation... transformations) {
+        mTransformations = Collections.unmodifiableList(Arrays.asList(transformations.clone()));
+    }
+
+    public List<Transformation> getTransformations() {
+        return mTransformations;
+    }
+
+    /**
+     * Keeps the transformed bitmap in the disk cache too, worth it for costly transformations
+     * of bitmaps shown often. It is thrown away once the original file changes.
+     *
+     * @param persistTransformed true to save it, defaults to false
+     */
+    public void setPersistTransformed(boolean persistTransformed) {
+        mPersistTransformed = persistTransformed;
+    }
+
+    public boolean isPersistTransformed() {
+        return mPersistTransformed;
+    }
+
+    /**
+     * Sets how urgent loading the bitmap is compared to other pending loads, e.g.
+     * {@link BitmapHelper#PRIORITY_HIGH} for what is on screen right now and
+     * {@link BitmapHelper#PRIORITY_LOW} for prefetching.
+     *
+     * @param priority higher values are loaded first, defaults to {@link BitmapHelper#PRIORITY_NORMAL}
+     */
+    public void setPriority(int priority) {
+        mPriority = priority;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Asks for a small preview to be delivered first, while the bitmap itself is loaded, see
+     * {@link #doLoadPreview}. Previews are transformed as the bitmap itself and cached as any
+     * other bitmap.
+     *
+     * @param previewUrl url of a thumbnail of the bitmap, or null to decode the preview from
+     *                   the bitmap itself, only if its file is already in the disk cache
+     * @param width      width in pixels to decode the preview for, see {@link #setTargetSize}
+     * @param height     height in pixels to decode the preview for
+     */
+    public void setPreview(String previewUrl, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be > 0");
+        }
+        mPreview = true;
+        mPreviewUrl = previewUrl;
+        mPreviewWidth = width;
+        mPreviewHeight = height;
+    }
+
+    /**
+     * Stops asking for previews
+     */
+    public void clearPreview() {
+        mPreview = false;
+        mPreviewUrl = null;
+    }
+
+    public boolean hasPreview() {
+        return mPreview;
+    }
+
+    /**
+     * @return url of the preview or null if it is decoded from the bitmap itself
+     */
+    public String getPreviewUrl() {
+        return mPreviewUrl;
+    }
+
+    public int getPreviewWidth() {
+        return mPreviewWidth;
+    }
+
+    public int getPreviewHeight() {
+        return mPreviewHeight;
+    }
+
     protected abstract void doLoad(BitmapHelper.BitmapRef ref, Bitmap bitmap);
 
+    /**
+     * Shows a preview until {@link #doLoad} gets the bitmap itself, by default nothing.
+     * It may be called after {@link #doLoad}, in such case it must be ignored.
+     *
+     * @param ref     reference of the preview, not of the bitmap itself
+     * @param preview the preview, always valid
+     */
+    protected void doLoadPreview(BitmapHelper.BitmapRef ref, Bitmap preview) {
+    }
+
     public static class NoOpObserver extends BaseBitmapObserver{
         public NoOpObserver() {
             super(null, null);
@@ -65,5 +242,16 @@ public abstract class BaseBitmapObserver implements UrlHolder {
         protected void doLoad(BitmapHelper.BitmapRef ref, Bitmap bitmap) {
             // do nothing
         }
+
+        @Override
+        boolean retainsBitmap() {
+            return false;
+        }
+
+        @Override
+        boolean stillNeeds(String uri) {
+            // only used to get something loaded, nobody can tell when it is not needed
+            return true;
+        }
     }
 }
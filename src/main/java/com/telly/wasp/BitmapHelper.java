@@ -8,13 +8,23 @@ import android.graphics.Matrix;
 import android.os.Debug;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.lang.ref.WeakReference;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.lang.String.format;
 
@@ -26,30 +36,93 @@ import static java.lang.String.format;
  * @version 1.1
  */
 public class BitmapHelper {
+    /**
+     * Load priorities, see {@link BaseBitmapObserver#setPriority(int)}
+     */
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+    /**
+     * Priority of {@link #prefetchBitmaps}, below anything being shown
+     */
+    public static final int PRIORITY_PREFETCH = -2;
+    /**
+     * Memory pressure levels, same values as android.content.ComponentCallbacks2 ones, see
+     * {@link #onTrimMemory(int)}
+     */
+    public static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+    public static final int TRIM_MEMORY_RUNNING_LOW = 10;
+    public static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+    public static final int TRIM_MEMORY_UI_HIDDEN = 20;
+    public static final int TRIM_MEMORY_BACKGROUND = 40;
+    public static final int TRIM_MEMORY_MODERATE = 60;
+    public static final int TRIM_MEMORY_COMPLETE = 80;
     /**
      * Unique instance of this helper
      */
     private static BitmapHelper instance;
     private static final String WASP_PREFIX = "wasp";
+    /**
+     * Directory inside the app cache directory owned by {@link #diskCache}
+     */
+    private static final String DISK_CACHE_DIRECTORY = "wasp";
+    private static final long DEFAULT_DISK_CACHE_SIZE = 32 * 1048576; // 32 MiB
+    /**
+     * Directory inside the app cache directory owned by {@link #rawPixelCache}
+     */
+    private static final String RAW_PIXEL_CACHE_DIRECTORY = "wasp-raw";
+    /**
+     * Metadata of a transformed bitmap in the disk cache telling which file it came from
+     */
+    private static final String META_DERIVED_FROM = "derived-from";
     private static final String MUTABLE_BITMAP_PREFIX = "mutable_%d_%d";
+    private static final int DEFAULT_PERSIST_QUALITY = 85;
     private static final Random RANDOM = new Random(System.currentTimeMillis());
     /**
      * On memory pool to add already loaded from file bitmaps
-     * Note: will be purged on by itself in case of low memory
+     * Note: trimmed on memory pressure as long as {@link #onTrimMemory(int)} gets called
      */
     private final BitmapRefCache cache;
+    /**
+     * Bitmaps evicted from {@link #cache} waiting to be decoded into again
+     */
+    private final BitmapPool pool;
     /**
      * the hard worker
      */
     private final BitmapLoader loader;
+    /**
+     * Files downloaded so far, lazily created as it needs a context
+     */
+    private DiskCache diskCache;
+    private long diskCacheMaxSize = DEFAULT_DISK_CACHE_SIZE;
+    /**
+     * Decoded pixels of small bitmaps loaded often, disabled unless given a size
+     */
+    private RawPixelCache rawPixelCache;
+    private long rawPixelCacheMaxSize;
+    /**
+     * Bitmaps given to {@link #cacheBitmap} waiting to be saved, lazily created as it needs
+     * the disk cache
+     */
+    private PersistQueue persistQueue;
+    private long persistQueueMaxSize = PersistQueue.DEFAULT_MAX_PENDING_BYTES;
+    /**
+     * Format bitmaps given to {@link #cacheBitmap} are saved in, null to pick per bitmap
+     */
+    private Bitmap.CompressFormat persistFormat;
+    private int persistQuality = DEFAULT_PERSIST_QUALITY;
 
     /**
      * Unique constructor
      * must be quick as hell
      */
     private BitmapHelper() {
-        cache = new BitmapRefCache();
-        loader = new BitmapLoader();
+        long maxSize = BitmapRefCache.defaultMaxSize();
+        pool = new BitmapPool(maxSize / BitmapRefCache.POOL_FRACTION);
+        cache = new BitmapRefCache(pool, maxSize);
+        loader = new BitmapLoader(pool);
+        BitmapUtils.setLoadMetrics(loader.metrics);
     }
 
     /**
@@ -71,6 +144,97 @@ public class BitmapHelper {
         if (cache != null) {
             cache.evictAll();
         }
+        pool.clear();
+    }
+
+    /**
+     * Releases memory according to how much pressure the system is under, meant to be called
+     * from ComponentCallbacks2#onTrimMemory of the application or activities. The in memory
+     * cache is trimmed to a fraction of its maximum size, evicting bitmaps no view shows
+     * first, and so are the pool of bitmaps to reuse and the bitmaps waiting to be saved by
+     * {@link #cacheBitmap}, which are given up oldest first. Maximum sizes are left untouched.
+     *
+     * @param level one of the TRIM_MEMORY_* levels
+     * @return amount of bytes released
+     */
+    public long onTrimMemory(int level) {
+        double fraction = retainedFraction(level);
+        if (fraction >= 1) {
+            return 0;
+        }
+        long before = cache.size() + pool.size();
+        cache.trimToSizePreferringUnused((long) (cache.maxSize() * fraction));
+        pool.trimToSize((long) (pool.maxSize() * fraction));
+        long freed = Math.max(0, before - cache.size() - pool.size());
+        PersistQueue queue;
+        long queueMaxSize;
+        synchronized (this) {
+            queue = persistQueue;
+            queueMaxSize = persistQueueMaxSize;
+        }
+        if (queue != null) {
+            freed += queue.trimToSize((long) (queueMaxSize * fraction));
+        }
+        Log.d(BitmapHelper.class.getSimpleName(), "Trim level " + level + " released " + freed + " bytes");
+        return freed;
+    }
+
+    /**
+     * Same as {@link #onTrimMemory(int)} at {@link #TRIM_MEMORY_COMPLETE}, meant to be called
+     * from onLowMemory on platforms without trim levels
+     *
+     * @return amount of bytes released
+     */
+    public long onLowMemory() {
+        return onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * @return fraction of the maximum sizes to keep at given memory pressure level
+     */
+    static double retainedFraction(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return 0;
+        }
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return 0.125;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            // nothing is on screen, keep enough to come back quickly
+            return 0.25;
+        }
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return 0.5;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.25;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.75;
+        }
+        return 1;
+    }
+
+    /**
+     * @return pool of evicted bitmaps reused by decodes, for stats purposes
+     */
+    public BitmapPool getBitmapPool() {
+        return pool;
+    }
+
+    /**
+     * Changes the amount of bytes of evicted bitmaps kept around to be decoded into again,
+     * by default an eighth of the in memory cache budget. Only bitmaps loaded through
+     * {@link #registerBitmapObserver} that were never handed out to anything but a
+     * {@link BitmapObserver}, and are no longer shown by its ImageView, get pooled.
+     *
+     * @param maxSize maximum amount of bytes, 0 disables pooling
+     */
+    public void setBitmapPoolMaxSize(long maxSize) {
+        pool.resize(maxSize);
     }
 
     /**
@@ -81,11 +245,9 @@ public class BitmapHelper {
         if (uris == null || uris.length == 0) {
             throw new IllegalStateException("Uri array is empty or null");
         }
+        DiskCache disk = getDiskCache(context);
         for (String uri : uris) {
-            File file = getCacheFileFromUri(context, uri);
-            if (file.exists() && !file.delete()) {
-                throw new RuntimeException("Could not delete " + file);
-            }
+            disk.remove(uri);
         }
     }
 
@@ -94,6 +256,18 @@ public class BitmapHelper {
      * inside a worker thread if you do not want to block the UI
      */
     public void deleteAllCachedFiles(Context context) {
+        synchronized (this) {
+            if (persistQueue != null) {
+                persistQueue.clear();
+            }
+        }
+        getDiskCache(context).clear();
+        RawPixelCache raw = getRawPixelCache(context);
+        if (raw != null) {
+            raw.clear();
+        }
+
+        // files written by previous versions straight into the cache directory
         File cacheDirectory = IOUtils.getCacheDirectory(context);
         if (cacheDirectory == null || !cacheDirectory.exists()) {
             return;
@@ -104,29 +278,169 @@ public class BitmapHelper {
                 continue;
             }
             File file = new File(cacheDirectory, fileName);
-            if (file.exists() && !file.delete()) {
+            if (file.isFile() && !file.delete()) {
                 throw new RuntimeException("Could not delete " + file);
             }
         }
     }
 
     /**
-     * @return number of files in the cache directory. This is not necessarily the number
+     * @return number of files in the disk cache. This is not necessarily the number
      *         of images downloaded, nor the images in memory cache.
      */
     public int savedFilesCount(Context context) {
-        File cacheDirectory = IOUtils.getCacheDirectory(context);
-        if (cacheDirectory == null || !cacheDirectory.exists() || !cacheDirectory.isDirectory()) {
-            return 0;
+        return getDiskCache(context).count();
+    }
+
+    /**
+     * @return amount of bytes stored in the disk cache
+     */
+    public long savedFilesSize(Context context) {
+        return getDiskCache(context).size();
+    }
+
+    /**
+     * Changes the maximum amount of bytes stored in the disk cache, by default 32 MiB.
+     * Least recently used files are deleted once exceeded.
+     *
+     * @param maxSize maximum amount of bytes, must be greater than 0
+     */
+    public synchronized void setDiskCacheMaxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
         }
-        int count = 0;
-        String[] files = cacheDirectory.list();
-        for (String fileName : files) {
-            if (fileName.startsWith(WASP_PREFIX)) {
-                count++;
-            }
+        diskCacheMaxSize = maxSize;
+        if (diskCache != null) {
+            diskCache.setMaxSize(maxSize);
+        }
+    }
+
+    /**
+     * Enables a second disk tier keeping the decoded pixels of small bitmaps, up to 256x256
+     * ARGB_8888, that are loaded from disk more than once. Loading them again is then a single
+     * copy from a memory mapped file instead of a decode, at the cost of much bigger files than
+     * the encoded ones. Its budget is independent of {@link #setDiskCacheMaxSize(long)}.
+     *
+     * @param maxSize maximum amount of bytes, 0 to disable it which is the default. Files
+     *                already stored are kept for when it is enabled again.
+     */
+    public synchronized void setRawPixelCacheMaxSize(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        rawPixelCacheMaxSize = maxSize;
+        if (rawPixelCache != null && maxSize > 0) {
+            rawPixelCache.setMaxSize(maxSize);
+        }
+    }
+
+    /**
+     * Sets how bitmaps given to {@link #cacheBitmap} are saved. By default those with
+     * transparency, most likely from PNG sources, are saved losslessly as PNG and the rest as
+     * JPEG at quality 85.
+     *
+     * @param format  format to save them in or null to pick it per bitmap as by default
+     * @param quality quality of lossy formats, from 0 to 100
+     */
+    public synchronized void setPersistFormat(Bitmap.CompressFormat format, int quality) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("quality must be between 0 and 100");
+        }
+        persistFormat = format;
+        persistQuality = quality;
+    }
+
+    /**
+     * Changes how many bytes of bitmaps may wait to be saved by {@link #cacheBitmap}, by
+     * default 8 MiB. Once exceeded, the oldest are not saved.
+     *
+     * @param maxSize maximum amount of bytes, must be greater than 0
+     */
+    public synchronized void setPersistQueueMaxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        persistQueueMaxSize = maxSize;
+        if (persistQueue != null) {
+            persistQueue.setMaxPendingBytes(maxSize);
+        }
+    }
+
+    /**
+     * Saves every bitmap given to {@link #cacheBitmap} still waiting, on the calling thread,
+     * and waits for those being saved. Meant for shutdown, it may take a while.
+     */
+    public void flushPersistQueue() throws InterruptedException {
+        PersistQueue queue;
+        synchronized (this) {
+            queue = persistQueue;
+        }
+        if (queue != null) {
+            queue.flush();
+        }
+    }
+
+    /**
+     * Waits for every bitmap given to {@link #cacheBitmap} to be saved
+     *
+     * @return true if all were saved, false if it timed out
+     */
+    public boolean awaitPersisted(long timeout, TimeUnit unit) throws InterruptedException {
+        PersistQueue queue;
+        synchronized (this) {
+            queue = persistQueue;
+        }
+        return queue == null || queue.await(timeout, unit);
+    }
+
+    /**
+     * @return amount of bitmaps given to {@link #cacheBitmap} not saved because they were
+     *         replaced or the queue was full
+     */
+    public synchronized long getPersistSkippedCount() {
+        return persistQueue == null ? 0 : persistQueue.coalescedCount() + persistQueue.droppedCount();
+    }
+
+    /**
+     * @return amount of bitmaps loaded from decoded pixels instead of decoding them
+     */
+    public synchronized long getRawPixelCacheHitCount() {
+        return rawPixelCache == null ? 0 : rawPixelCache.hitCount();
+    }
+
+    /**
+     * @return the decoded pixels tier or null if disabled
+     */
+    synchronized RawPixelCache getRawPixelCache(Context context) {
+        if (rawPixelCacheMaxSize <= 0) {
+            return null;
+        }
+        if (rawPixelCache == null) {
+            File directory = new File(IOUtils.getCacheDirectory(context), RAW_PIXEL_CACHE_DIRECTORY);
+            rawPixelCache = new RawPixelCache(directory, rawPixelCacheMaxSize);
+        }
+        return rawPixelCache;
+    }
+
+    /**
+     * @return the queue saving bitmaps given to {@link #cacheBitmap}
+     */
+    private synchronized PersistQueue getPersistQueue(Context context) {
+        if (persistQueue == null) {
+            persistQueue = new PersistQueue(getDiskCache(context), persistQueueMaxSize);
+        }
+        return persistQueue;
+    }
+
+    /**
+     * @return the disk cache, nothing is read from disk until first used
+     */
+    synchronized DiskCache getDiskCache(Context context) {
+        if (diskCache == null) {
+            File directory = new File(IOUtils.getCacheDirectory(context), DISK_CACHE_DIRECTORY);
+            diskCache = new DiskCache(directory, diskCacheMaxSize);
         }
-        return count;
+        return diskCache;
     }
 
     /**
@@ -138,12 +452,40 @@ public class BitmapHelper {
      *         Note: in case of urlFrom parameter is null this method does nothing
      */
     public Bitmap getBitmap(String urlFrom) {
+        return getBitmap(urlFrom, 0, 0);
+    }
+
+    /**
+     * Try to get the bitmap decoded for given target size from cache
+     *
+     * @param urlFrom      A valid URL pointing to a bitmap
+     * @param targetWidth  width the bitmap was requested for, see {@link BaseBitmapObserver#setTargetSize(int, int)}
+     * @param targetHeight height the bitmap was requested for
+     * @return A bitmap associated to given url and size if any available
+     */
+    public Bitmap getBitmap(String urlFrom, int targetWidth, int targetHeight) {
+        return getBitmap(urlFrom, targetWidth, targetHeight, new Transformation[0]);
+    }
+
+    /**
+     * Try to get the bitmap decoded for given target size and transformed from cache
+     *
+     * @param urlFrom         A valid URL pointing to a bitmap
+     * @param targetWidth     width the bitmap was requested for, see {@link BaseBitmapObserver#setTargetSize(int, int)}
+     * @param targetHeight    height the bitmap was requested for
+     * @param transformations transformations it was requested with, see {@link BaseBitmapObserver#setTransformations}
+     * @return A bitmap associated to given url, size and transformations if any available
+     */
+    public Bitmap getBitmap(String urlFrom, int targetWidth, int targetHeight, Transformation... transformations) {
         if (isInvalidUri(urlFrom)) {
             return null;
         }
         //Lets check the cache
-        BitmapRef ref = cache.get(urlFrom);
+        BitmapRef ref = cache.get(cacheKeyFor(urlFrom, targetWidth, targetHeight,
+                Transformations.keyOf(Arrays.asList(transformations))));
         if (ref != null) {
+            // we can no longer tell when the caller is done with it
+            ref.markEscaped();
             return ref.getBitmap();
         }
         return null;
@@ -168,8 +510,8 @@ public class BitmapHelper {
             return bitmap;
         }
         // bitmap is not cached, let's see if it is persisted in the cache directory
-        File file = getCacheFileFromUri(context, urlFrom);
-        if (file.exists()) {
+        File file = getDiskCache(context).get(urlFrom);
+        if (file != null) {
             // file is there... let's try to decode it
             try {
                 bitmap = BitmapUtils.loadBitmapFile(file.getCanonicalPath());
@@ -200,13 +542,15 @@ public class BitmapHelper {
      * cache the file once it is decoded, so that further calls to this
      * method will return the same bitmap reference if still in cache.
      *
+     * Shares the cache with observers loading through a {@link ResourceBitmapLoader}.
+     *
      * @param res      resources instance to get the drawable contents
      * @param drawable the drawable resource to decode
      * @return a bitmap representation of the drawable resource
      */
     public Bitmap decodeResource(Resources res, final int drawable) {
         // try to get the bitmap if it's cached already
-        final String id = "drawable_resource:" + drawable;
+        final String id = ResourceBitmapLoader.uriFor(drawable);
         Bitmap bitmap = getBitmap(id);
         if (BitmapUtils.isBitmapValid(bitmap)) {
             // bitmap was already cached, just return it
@@ -246,7 +590,7 @@ public class BitmapHelper {
             }
         }
         // let's get the file size
-        int fileSize;
+        long fileSize;
         try {
             fileSize = inputStream.available();
         } catch (Exception e) {
@@ -257,7 +601,7 @@ public class BitmapHelper {
         // When Android decodes the image, its size can increase up to 20 times.
         // It could be much less, but we are being pessimistic in order to avoid
         // OutOfMemory crashes.
-        int tentativeNewFileSize = fileSize * 20;
+        long tentativeNewFileSize = fileSize * 20;
         // if the current cache plus the file that is going to
         // be added surpasses the maximum cache size, we will have to evict
         // some files until we have enough space
@@ -291,7 +635,7 @@ public class BitmapHelper {
         }
 
         // let's calculate the bitmap byte size
-        int bitmapSize = calculateBitmapSize(width, height, config);
+        long bitmapSize = calculateBitmapSize(width, height, config);
 
         // if the current cache plus the file that is going to
         // be added surpasses the maximum cache size, we will have to evict
@@ -363,7 +707,7 @@ public class BitmapHelper {
         if (source == null) {
             throw new IllegalStateException("Bitmap source cannot be null");
         }
-        int bitmapByteSize = BitmapUtils.getBitmapSize(source);
+        long bitmapByteSize = BitmapUtils.getBitmapSize(source);
 
         // if the current cache plus the file that is going to
         // be added surpasses the maximum cache size, we will have to evict
@@ -396,7 +740,7 @@ public class BitmapHelper {
             throw new IllegalStateException("Bitmap source cannot be null");
         }
         Bitmap.Config config = src.getConfig();
-        int bitmapByteSize = calculateBitmapSize(dstWidth, dstHeight, config);
+        long bitmapByteSize = calculateBitmapSize(dstWidth, dstHeight, config);
 
         // if the current cache plus the file that is going to
         // be added surpasses the maximum cache size, we will have to evict
@@ -413,18 +757,19 @@ public class BitmapHelper {
         return bitmap;
     }
 
-    private int calculateBitmapSize(int width, int height, Bitmap.Config config) {
-        int bitmapSize = 0;
+    private long calculateBitmapSize(int width, int height, Bitmap.Config config) {
+        long pixels = (long) width * height;
+        long bitmapSize = 0;
         switch (config) {
             case ARGB_8888:
-                bitmapSize = width * height * 4;
+                bitmapSize = pixels * 4;
                 break;
             case ARGB_4444:
             case RGB_565:
-                bitmapSize = width * height * 2;
+                bitmapSize = pixels * 2;
                 break;
             case ALPHA_8:
-                bitmapSize = width * height * 1;
+                bitmapSize = pixels;
                 break;
         }
         return bitmapSize;
@@ -438,365 +783,2001 @@ public class BitmapHelper {
     }
 
     /**
-     * Register a bitmap in the cache system.
-     *
-     * @param context used to get the cache directory
-     * @param bitmap  the bitmap to save to cache
-     * @param uri     the unique resource identifier to this cache
-     * @param persist true if the bitmap should be persisted to file system
+     * @return amount of bytes used by the bitmaps currently cached
      */
-    public void cacheBitmap(final Context context, final Bitmap bitmap, final String uri, boolean persist) {
-        if (!BitmapUtils.isBitmapValid(bitmap)) {
-            return;
-        }
-
-        if (persist) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    File file = getCacheFileFromUri(context, uri);
-                    try {
-                        FileOutputStream stream = new FileOutputStream(file);
-                        bitmap.compress(Bitmap.CompressFormat.JPEG, 100, stream);
-                        stream.close();
-                    } catch (Exception ignored) {
-                    }
-                }
-            }).start();
-        }
+    public long getCacheByteSize() {
+        return cache.size();
+    }
 
-        BitmapRef bitmapRef = new BitmapRef(uri);
-        bitmapRef.bitmapRef = bitmap;
-        cache.put(uri, bitmapRef);
+    /**
+     * @return maximum amount of bytes the in memory cache can hold
+     */
+    public long getMaxCacheSize() {
+        return cache.maxSize();
     }
 
     /**
-     * Try to get a list of Bitmaps, if any of them is already on cache given observer will be
-     * notified about right away, those not in cache will be loaded later and observer will get it
+     * Changes the maximum amount of bytes the in memory cache can hold, by default it is
+     * a quarter of the available memory. If the cache currently holds more than that,
+     * least recently used bitmaps are evicted right away.
      *
-     * @param context  Context to use
-     * @param urls     List of URL to download/load from
-     * @param observer Will be notified on bitmap loaded
+     * @param maxSize maximum amount of bytes, must be greater than 0
      */
-    public void bulkBitmaps(Context context, List<String> urls, BaseBitmapObserver observer) {
-        if (observer == null || urls == null || urls.size() < 1) {
-            return;
-        }
-        for (String url : urls) {
-            observer.setTakeUriIntoAccount(false);// since the same observer will be used for all urls
-            registerBitmapObserver(context, url, observer, null);
-        }
+    public void setMaxCacheSize(long maxSize) {
+        cache.resize(maxSize);
     }
 
     /**
-     * Download and put in cache a bitmap
+     * Changes the policy deciding whether a newly loaded bitmap may evict an older one
+     * from the in memory cache, by default a {@link TinyLfuAdmissionPolicy} so one pass
+     * over many never seen URLs does not flush frequently used bitmaps. Cache counters
+     * are reset so {@link #getCacheHitRate()} reflects the new policy only.
      *
-     * @param context  Context to use
-     * @param urlFrom  A valid URL pointing to a bitmap
-     * @param observer Will be notified on bitmap loaded
+     * @param policy policy to use or null for plain least recently used eviction
      */
-    public void registerBitmapObserver(Context context, String urlFrom, BaseBitmapObserver observer, com.telly.wasp.BitmapLoader fileLoader) {
-        if (isInvalidUri(urlFrom)) {
-            return;
-        }
-        //Lets check the cache
-        BitmapRef ref = cache.get(urlFrom);
-        Bitmap bitmap = null;
-        if (ref == null) {
-            //Hummm nothing in cache lets try to put it in cache
-            ref = new BitmapRef(urlFrom);
-            cache.putAndObserve(urlFrom, ref);
-        } else {
-            bitmap = ref.getBitmap();
-        }
+    public void setAdmissionPolicy(AdmissionPolicy<String> policy) {
+        cache.setAdmissionPolicy(policy);
+        cache.resetStats();
+    }
 
-        if (!BitmapUtils.isBitmapValid(bitmap)) { //humm garbage collected or not already loaded lest try to load it anyway
-            ref.addObserver(observer);
-            if (fileLoader != null) {
-                ref.setLoader(fileLoader);
-            }
-            loader.load(context, ref);
-        } else {
-            observer.update(ref, null); // We got a valid ref and bitmap let's the observer know
-        }
+    /**
+     * @return ratio of in memory cache lookups that found a bitmap reference
+     */
+    public double getCacheHitRate() {
+        return cache.hitRate();
     }
 
     /**
-     * Download and put in cache a bitmap
+     * Changes the maximum amount of bitmaps loaded at the same time, by default between
+     * 2 and 4 depending on the amount of processors. Loads beyond that wait in a queue,
+     * highest priority and most recently requested first.
      *
-     * @param context  Context to use
-     * @param observer Will be notified on bitmap loaded
+     * @param parallelism maximum amount of concurrent loads, must be greater than 0
      */
-    public void registerBitmapObserver(Context context, BaseBitmapObserver observer) {
-        registerBitmapObserver(context, observer.getUrl(), observer, null);
+    public void setLoadParallelism(int parallelism) {
+        loader.scheduler.setParallelism(parallelism);
     }
 
-    public void registerBitmapObserver(Context context, BaseBitmapObserver observer, com.telly.wasp.BitmapLoader fileLoader) {
-        registerBitmapObserver(context, observer.getUrl(), observer, fileLoader);
+    /**
+     * @return amount of loads waiting for a free thread
+     */
+    public int getLoadQueueDepth() {
+        return loader.scheduler.getQueueDepth();
     }
 
-    private static boolean isInvalidUri(String url) {
-        return url == null || url.length() == 0;
+    /**
+     * @return average time loads waited for a free thread, in milliseconds
+     */
+    public long getAverageLoadWaitMillis() {
+        return loader.scheduler.getAverageWaitMillis();
     }
 
-    private static File getCacheFileFromUri(Context context, String urlFrom) {
-        File cacheDirectory = IOUtils.getCacheDirectory(context);
-        return getCacheFileFromUri(cacheDirectory, urlFrom);
+    /**
+     * @return longest time a load waited for a free thread, in milliseconds
+     */
+    public long getMaxLoadWaitMillis() {
+        return loader.scheduler.getMaxWaitMillis();
     }
 
-    private static File getCacheFileFromUri(File cacheDir, String urlFrom) {
-        String filename = WASP_PREFIX + String.valueOf(urlFrom.hashCode());
-        return new File(cacheDir, filename);
+    /**
+     * Removes from the load queue every bitmap no observer needs anymore, e.g. because
+     * its {@link BitmapObserver}'s view was recycled to show another URL. Loads already
+     * running notice it by themselves.
+     *
+     * @return amount of loads cancelled
+     */
+    public int cancelStaleLoads() {
+        return loader.cancelStale();
     }
 
     /**
-     * Wrapper to an association between an URL and a in memory cached bitmap
-     * <p/>
-     * URL must be immutable.
+     * Holds every bitmap decode until {@link #resumeLoads()}, e.g. while a list is being
+     * flung so decoding frames nobody will see does not compete with rendering. Loads
+     * requested meanwhile are held as well, those nobody needs by then are never decoded.
+     * Prefetches are not affected.
      *
-     * @author evelio
+     * @param keepDownloading true to still download bitmaps not on disk yet while paused,
+     *                        so they are ready to decode once resumed
      */
-    static class BitmapRef extends Observable {
-        Bitmap bitmapRef;
-        String from;
-        Observer stickyObserver;
-        int currentSize;
-        int previousSize;
-        private com.telly.wasp.BitmapLoader mFileLoader;
+    public void pauseLoads(boolean keepDownloading) {
+        loader.pause(keepDownloading);
+    }
 
-        /**
-         * Creates a new instance with given uri
-         *
-         * @param uri a bitmap url
-         */
-        public BitmapRef(String uri) {
-            if (isInvalidUri(uri)) {
-                throw new IllegalArgumentException("Invalid URL");
-            }
-            from = uri;
-            currentSize = previousSize = 0;
-        }
+    /**
+     * Decodes the bitmaps held since {@link #pauseLoads(boolean)} and still needed, most
+     * recently requested first
+     */
+    public void resumeLoads() {
+        loader.resume();
+    }
 
-        /**
-         * @return Bitmap cached or null if was garbage collected
-         */
-        public Bitmap getBitmap() {
-            return bitmapRef;
-        }
+    public boolean isLoadingPaused() {
+        return loader.paused;
+    }
 
-        /**
-         * @return URL associated to this BitmapRef
-         */
-        public String getUri() {
+    /**
+     * @return amount of loads held while paused that nobody needed anymore once resumed,
+     *         so they were never decoded
+     */
+    public long getAvoidedDecodeCount() {
+        return loader.avoidedDecodeCount.get();
+    }
+
+    /**
+     * @return latency histograms of every load phase and related counters, see
+     *         {@link LoadMetrics#setListener} to export each load as it is done
+     */
+    public LoadMetrics getLoadMetrics() {
+        return loader.metrics;
+    }
+
+    /**
+     * @return ratio of bitmaps put in the in memory cache that evicted another one
+     */
+    public double getMemoryEvictionRate() {
+        long puts = cache.putCount();
+        return puts == 0 ? 0 : (double) cache.evictionCount() / puts;
+    }
+
+    /**
+     * @return amount of files deleted from the disk cache to stay within its maximum size
+     */
+    public long getDiskEvictionCount(Context context) {
+        return getDiskCache(context).evictionCount();
+    }
+
+    /**
+     * @return amount of loads cancelled so far because nobody needed them anymore
+     */
+    public long getCancelledLoadCount() {
+        return loader.cancelledCount.get();
+    }
+
+    /**
+     * @return average time from asking for a bitmap not in memory until observers get it,
+     *         in milliseconds
+     */
+    public long getAverageTimeToFirstPixelMillis() {
+        return loader.averageMillis(loader.firstPixelNanos);
+    }
+
+    /**
+     * @return average time from asking for a bitmap not in memory until it is fully loaded,
+     *         including saving it to disk, in milliseconds
+     */
+    public long getAverageLoadMillis() {
+        return loader.averageMillis(loader.totalNanos);
+    }
+
+    /**
+     * @return amount of images downloaded from the network, revalidations that got a new
+     *         version included
+     */
+    public long getDownloadCount() {
+        return loader.downloadCount.get();
+    }
+
+    /**
+     * @return amount of expired files on disk the server said were still valid, so they
+     *         were not downloaded again
+     */
+    public long getNotModifiedCount() {
+        return loader.notModifiedCount.get();
+    }
+
+    /**
+     * @return amount of bytes not downloaded again because an interrupted download could
+     *         be resumed
+     */
+    public long getResumedByteCount() {
+        return loader.resumedBytes.get();
+    }
+
+    /**
+     * @return amount of interrupted downloads that were resumed
+     */
+    public long getResumedCount() {
+        return loader.resumedCount.get();
+    }
+
+    /**
+     * @return amount of interrupted downloads that could not be resumed and were
+     *         downloaded again from scratch
+     */
+    public long getFullRefetchCount() {
+        return loader.fullRefetchCount.get();
+    }
+
+    /**
+     * Register a bitmap in the cache system.
+     *
+     * @param context used to get the cache directory
+     * @param bitmap  the bitmap to save to cache
+     * @param uri     the unique resource identifier to this cache
+     * @param persist true if the bitmap should be persisted to file system, in the background,
+     *                see {@link #setPersistFormat}. It must not be modified nor recycled meanwhile.
+     */
+    public void cacheBitmap(Context context, Bitmap bitmap, String uri, boolean persist) {
+        Bitmap.CompressFormat format;
+        int quality;
+        synchronized (this) {
+            format = persistFormat;
+            quality = persistQuality;
+        }
+        if (format == null && BitmapUtils.isBitmapValid(bitmap)) {
+            format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+        }
+        cacheBitmap(context, bitmap, uri, persist ? format : null, quality);
+    }
+
+    /**
+     * Register a bitmap in the cache system, saving it in given format
+     *
+     * @param context used to get the cache directory
+     * @param bitmap  the bitmap to save to cache
+     * @param uri     the unique resource identifier to this cache
+     * @param format  format to persist it to file system in, in the background, or null to not
+     *                persist it. It must not be modified nor recycled meanwhile.
+     * @param quality quality of lossy formats, from 0 to 100
+     */
+    public void cacheBitmap(Context context, Bitmap bitmap, String uri, Bitmap.CompressFormat format, int quality) {
+        if (!BitmapUtils.isBitmapValid(bitmap)) {
+            return;
+        }
+
+        if (format != null) {
+            getPersistQueue(context).enqueue(uri, bitmap, BitmapUtils.getBitmapSize(bitmap), format, quality);
+        }
+
+        BitmapRef bitmapRef = new BitmapRef(uri);
+        bitmapRef.bitmapRef = bitmap;
+        cache.put(uri, bitmapRef);
+    }
+
+    /**
+     * Loads a bitmap without an observer, e.g. to warm the caches from a background job
+     *
+     * @param context Context to use
+     * @param urlFrom A valid URL pointing to a bitmap
+     * @return a future done once the bitmap is loaded, right away if it is in memory.
+     *         Cancelling it cancels the load unless someone else needs it too.
+     */
+    public LoadFuture<Bitmap> loadBitmap(Context context, String urlFrom) {
+        return loadBitmap(context, urlFrom, 0, 0, PRIORITY_NORMAL);
+    }
+
+    /**
+     * Loads a bitmap downsampled to roughly the given size without an observer
+     *
+     * @param context      Context to use
+     * @param urlFrom      A valid URL pointing to a bitmap
+     * @param targetWidth  width in pixels the bitmap will be shown at, 0 for full size
+     * @param targetHeight height in pixels the bitmap will be shown at, 0 for full size
+     * @param priority     how urgent it is, see {@link BaseBitmapObserver#setPriority(int)}
+     * @return a future done once the bitmap is loaded, it fails if it could not be loaded
+     */
+    public LoadFuture<Bitmap> loadBitmap(Context context, String urlFrom, int targetWidth, int targetHeight,
+                                         int priority) {
+        BitmapFuture future = new BitmapFuture();
+        if (isInvalidUri(urlFrom)) {
+            future.fail(new IllegalArgumentException("Invalid URL"));
+            return future;
+        }
+        FutureObserver observer = new FutureObserver(urlFrom, future);
+        observer.setTargetSize(targetWidth, targetHeight);
+        observer.setPriority(priority);
+        future.observer = observer;
+        future.ref = register(context, urlFrom, observer, null);
+        if (future.isCancelled()) {
+            // cancelled before knowing what to cancel
+            future.onCancelled();
+        }
+        return future;
+    }
+
+    /**
+     * Loads a batch of bitmaps without observers
+     *
+     * @param context      Context to use
+     * @param urls         List of URL to load
+     * @param targetWidth  width in pixels the bitmaps will be shown at, 0 for full size
+     * @param targetHeight height in pixels the bitmaps will be shown at, 0 for full size
+     * @param priority     how urgent it is, see {@link BaseBitmapObserver#setPriority(int)}
+     * @return a future done once every bitmap is either loaded or failed, see
+     *         {@link LoadFuture#allOf(List)}
+     */
+    public LoadFuture<List<Bitmap>> loadBitmaps(Context context, List<String> urls, int targetWidth, int targetHeight,
+                                                int priority) {
+        List<LoadFuture<Bitmap>> futures = new ArrayList<LoadFuture<Bitmap>>(urls.size());
+        for (String url : urls) {
+            futures.add(loadBitmap(context, url, targetWidth, targetHeight, priority));
+        }
+        return LoadFuture.allOf(futures);
+    }
+
+    /**
+     * Downloads given URLs to the disk cache ahead of time, e.g. the next page of a list,
+     * so they load quickly once needed. Nothing is decoded nor kept in memory and every
+     * download waits for those of bitmaps being shown, see {@link #PRIORITY_PREFETCH}.
+     * URLs already on disk are done right away.
+     *
+     * @param context Context to use
+     * @param urls    List of URL to download
+     * @return handle to follow the progress of the group or cancel it
+     */
+    public Prefetch prefetchBitmaps(Context context, List<String> urls) {
+        final List<LoadScheduler.Task> tasks = new ArrayList<LoadScheduler.Task>(urls.size());
+        Prefetch prefetch = new Prefetch(urls.size()) {
+            @Override
+            protected void onCancelled() {
+                synchronized (tasks) {
+                    for (LoadScheduler.Task task : tasks) {
+                        loader.scheduler.remove(task);
+                    }
+                }
+            }
+        };
+        DiskCache disk = getDiskCache(context);
+        synchronized (tasks) {
+            for (String url : urls) {
+                if (isInvalidUri(url)) {
+                    prefetch.itemDone(false);
+                    continue;
+                }
+                tasks.add(loader.prefetch(context, url, disk, prefetch));
+            }
+        }
+        return prefetch;
+    }
+
+    /**
+     * Plugs a source of bitmaps into the loading pipeline, asked after the in memory cache
+     * and before the disk cache and the network. Bitmaps it returns are cached in memory
+     * like any other but never saved to disk.
+     *
+     * @param stage stage to add after those already added
+     */
+    public void addLoadStage(LoadStage stage) {
+        if (stage == null) {
+            throw new IllegalArgumentException("stage == null");
+        }
+        loader.stages.add(stage);
+    }
+
+    public void removeLoadStage(LoadStage stage) {
+        loader.stages.remove(stage);
+    }
+
+    /**
+     * Try to get a list of Bitmaps, if any of them is already on cache given observer will be
+     * notified about right away, those not in cache will be loaded later and observer will get it
+     *
+     * @param context  Context to use
+     * @param urls     List of URL to download/load from
+     * @param observer Will be notified on bitmap loaded
+     */
+    public void bulkBitmaps(Context context, List<String> urls, BaseBitmapObserver observer) {
+        if (observer == null || urls == null || urls.size() < 1) {
+            return;
+        }
+        for (String url : urls) {
+            observer.setTakeUriIntoAccount(false);// since the same observer will be used for all urls
+            registerBitmapObserver(context, url, observer, null);
+        }
+    }
+
+    /**
+     * Download and put in cache a bitmap
+     *
+     * @param context  Context to use
+     * @param urlFrom  A valid URL pointing to a bitmap
+     * @param observer Will be notified on bitmap loaded
+     */
+    public void registerBitmapObserver(Context context, String urlFrom, BaseBitmapObserver observer, com.telly.wasp.BitmapLoader fileLoader) {
+        register(context, urlFrom, observer, fileLoader);
+    }
+
+    /**
+     * Same as {@link #registerBitmapObserver(Context, String, BaseBitmapObserver, com.telly.wasp.BitmapLoader)}
+     *
+     * @return the reference given observer was registered to or null if the url is invalid
+     */
+    private BitmapRef register(Context context, String urlFrom, BaseBitmapObserver observer, com.telly.wasp.BitmapLoader fileLoader) {
+        if (isInvalidUri(urlFrom)) {
+            return null;
+        }
+        final int targetWidth = observer.getTargetWidth();
+        final int targetHeight = observer.getTargetHeight();
+        final List<Transformation> transformations = observer.getTransformations();
+        final String key = cacheKeyFor(urlFrom, targetWidth, targetHeight, Transformations.keyOf(transformations));
+        //Lets check the cache
+        BitmapRef ref = cache.get(key);
+        Bitmap bitmap = null;
+        if (ref == null) {
+            //Hummm nothing in cache lets try to put it in cache
+            ref = new BitmapRef(urlFrom, targetWidth, targetHeight,
+                    transformations, observer.isPersistTransformed());
+            cache.putAndObserve(key, ref);
+        } else {
+            bitmap = ref.getBitmap();
+        }
+
+        if (!BitmapUtils.isBitmapValid(bitmap)) { //humm garbage collected or not already loaded lest try to load it anyway
+            if (observer.hasPreview()) {
+                registerPreview(context, urlFrom, observer);
+            }
+            ref.addObserver(observer);
+            if (fileLoader != null) {
+                ref.setLoader(fileLoader);
+            }
+            loader.load(context, ref, getDiskCache(context), getRawPixelCache(context), observer.getPriority());
+        } else {
+            observer.onBitmapLoaded(ref); // We got a valid ref and bitmap let's the observer know
+        }
+        return ref;
+    }
+
+    /**
+     * Download and put in cache a bitmap
+     *
+     * @param context  Context to use
+     * @param observer Will be notified on bitmap loaded
+     */
+    public void registerBitmapObserver(Context context, BaseBitmapObserver observer) {
+        registerBitmapObserver(context, observer.getUrl(), observer, null);
+    }
+
+    public void registerBitmapObserver(Context context, BaseBitmapObserver observer, com.telly.wasp.BitmapLoader fileLoader) {
+        registerBitmapObserver(context, observer.getUrl(), observer, fileLoader);
+    }
+
+    /**
+     * Download and put in cache a bitmap downsampled to roughly the given size, handy to
+     * avoid decoding a huge image just to show a thumbnail. The bitmap will be at least
+     * as big as the target size unless the image itself is smaller.
+     *
+     * @param context      Context to use
+     * @param observer     Will be notified on bitmap loaded
+     * @param targetWidth  width in pixels the bitmap will be shown at
+     * @param targetHeight height in pixels the bitmap will be shown at
+     */
+    public void registerBitmapObserver(Context context, BaseBitmapObserver observer, int targetWidth, int targetHeight) {
+        observer.setTargetSize(targetWidth, targetHeight);
+        registerBitmapObserver(context, observer.getUrl(), observer, null);
+    }
+
+    /**
+     * Delivers a preview of given url to given observer, right away if it is in memory
+     */
+    private void registerPreview(Context context, String urlFrom, BaseBitmapObserver observer) {
+        String previewUrl = observer.getPreviewUrl();
+        boolean cacheOnly = previewUrl == null;
+        if (cacheOnly) {
+            previewUrl = urlFrom;
+        }
+        final int width = observer.getPreviewWidth();
+        final int height = observer.getPreviewHeight();
+        final List<Transformation> transformations = observer.getTransformations();
+        final String transformationKey = Transformations.keyOf(transformations);
+        // a bitmap loaded for that size anyway is as good a preview
+        BitmapRef ref = cache.get(cacheKeyFor(previewUrl, width, height, transformationKey));
+        if (ref != null && BitmapUtils.isBitmapValid(ref.getBitmap())) {
+            observer.onPreviewLoaded(urlFrom, ref);
+            return;
+        }
+        if (cacheOnly) {
+            // whether there is anything on disk to decode it from is found out by the loader,
+            // the disk cache may block or even be opened for the first time
+            ref = cache.get(BitmapRef.cacheOnlyKeyFor(urlFrom, width, height, transformationKey));
+            if (ref == null) {
+                ref = BitmapRef.cacheOnly(urlFrom, width, height, transformations);
+                cache.putAndObserve(ref.getKey(), ref);
+            }
+        } else if (ref == null) {
+            ref = new BitmapRef(previewUrl, width, height, transformations, false);
+            cache.putAndObserve(ref.getKey(), ref);
+        }
+        if (BitmapUtils.isBitmapValid(ref.getBitmap())) {
+            observer.onPreviewLoaded(urlFrom, ref);
+            return;
+        }
+        ref.addObserver(new PreviewObserver(observer, urlFrom));
+        // ahead of the bitmap itself
+        loader.load(context, ref, getDiskCache(context), getRawPixelCache(context), observer.getPriority() + 1);
+    }
+
+    private static boolean isInvalidUri(String url) {
+        return url == null || url.length() == 0;
+    }
+
+    /**
+     * @return key to use in the in memory cache for given uri decoded for given size
+     */
+    static String cacheKeyFor(String uri, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return uri;
+        }
+        return uri + " @" + targetWidth + "x" + targetHeight;
+    }
+
+    /**
+     * @param transformationKey see {@link Transformations#keyOf(List)}
+     * @return key to use in the in memory cache for given uri decoded for given size and then
+     *         transformed, also the key of the transformed bitmap in the disk cache
+     */
+    static String cacheKeyFor(String uri, int targetWidth, int targetHeight, String transformationKey) {
+        String key = cacheKeyFor(uri, targetWidth, targetHeight);
+        if (transformationKey.length() == 0) {
+            return key;
+        }
+        return key + " #" + transformationKey;
+    }
+
+    /**
+     * @return identifies given version of a cached file, to tell whether it changed
+     */
+    private static String signatureOf(File file) {
+        return file.length() + "/" + file.lastModified();
+    }
+
+    /**
+     * Hands a preview over to the observer of the bitmap it is for
+     */
+    private static class PreviewObserver extends BaseBitmapObserver {
+        private final BaseBitmapObserver target;
+        private final String url;
+
+        private PreviewObserver(BaseBitmapObserver target, String url) {
+            super(null, null);
+            this.target = target;
+            this.url = url;
+        }
+
+        @Override
+        public void onBitmapLoaded(BitmapRef ref) {
+            target.onPreviewLoaded(url, ref);
+        }
+
+        @Override
+        protected void doLoad(BitmapRef ref, Bitmap bitmap) {
+            // previews go through onPreviewLoaded
+        }
+
+        @Override
+        boolean retainsBitmap() {
+            return false;
+        }
+
+        @Override
+        boolean stillNeeds(String uri) {
+            return target.stillNeeds(url);
+        }
+    }
+
+    /**
+     * Future of {@link #loadBitmap}, cancelling it cancels its load unless someone else
+     * waits for it too
+     */
+    private class BitmapFuture extends LoadFuture<Bitmap> {
+        private volatile BitmapRef ref;
+        private volatile FutureObserver observer;
+        /**
+         * set once its load got cancelled, cancelling races with {@link #loadBitmap} setting ref
+         */
+        private final AtomicBoolean loadCancelled = new AtomicBoolean();
+
+        @Override
+        protected void onCancelled() {
+            BitmapRef ref = this.ref;
+            if (ref != null && loadCancelled.compareAndSet(false, true)) {
+                loader.cancel(ref, observer);
+            }
+        }
+    }
+
+    /**
+     * Completes a future instead of showing the bitmap
+     */
+    private static class FutureObserver extends BaseBitmapObserver {
+        private final LoadFuture<Bitmap> future;
+
+        private FutureObserver(String url, LoadFuture<Bitmap> future) {
+            super(url, null);
+            this.future = future;
+        }
+
+        @Override
+        protected void doLoad(BitmapRef ref, Bitmap bitmap) {
+            if (BitmapUtils.isBitmapValid(bitmap)) {
+                future.set(bitmap);
+            } else {
+                future.fail(new IOException("Unable to load " + ref.getUri()));
+            }
+        }
+
+        @Override
+        boolean stillNeeds(String uri) {
+            return !future.isCancelled() && super.stillNeeds(uri);
+        }
+    }
+
+    /**
+     * Wrapper to an association between an URL and a in memory cached bitmap
+     * <p/>
+     * URL must be immutable.
+     *
+     * @author evelio
+     */
+    static class BitmapRef {
+        private static final Listener[] NO_LISTENERS = new Listener[0];
+        Bitmap bitmapRef;
+        String from;
+        /**
+         * Notified on every load, never removed by {@link #deleteObservers()}
+         */
+        volatile Listener stickyObserver;
+        /**
+         * Key in the in memory cache, includes the target size and transformations
+         */
+        final String key;
+        final int targetWidth;
+        final int targetHeight;
+        /**
+         * Applied in order once decoded, empty if none
+         */
+        final List<Transformation> transformations;
+        /**
+         * True to keep the transformed bitmap in the disk cache too
+         */
+        final boolean persistTransformed;
+        /**
+         * True to decode it only from the disk cache, never downloading it
+         */
+        final boolean cacheOnly;
+        long currentSize;
+        long previousSize;
+        private com.telly.wasp.BitmapLoader mFileLoader;
+        /**
+         * True if bitmapRef was decoded by us into a mutable bitmap, so it may be pooled
+         */
+        private volatile boolean reusable;
+        /**
+         * True if bitmapRef was handed out to someone we can not track
+         */
+        private volatile boolean escaped;
+        /**
+         * Views the bitmap was delivered to, guarded by this
+         */
+        private List<WeakReference<BitmapObserver.ViewState>> bindings;
+        /**
+         * Observers waiting for the bitmap other than the sticky one, in order of addition,
+         * guarded by this. Handed over as is when notified, so it is never copied.
+         */
+        private Listener[] waiting = NO_LISTENERS;
+        private int waitingCount;
+
+        /**
+         * Notified once the bitmap of a {@link BitmapRef} is loaded, or failed to
+         */
+        interface Listener {
+            void onBitmapLoaded(BitmapRef ref);
+        }
+
+        /**
+         * Creates a new instance with given uri
+         *
+         * @param uri a bitmap url
+         */
+        public BitmapRef(String uri) {
+            this(uri, 0, 0);
+        }
+
+        /**
+         * Creates a new instance with given uri to be decoded for given size
+         *
+         * @param uri          a bitmap url
+         * @param targetWidth  width to decode for or 0 for full size
+         * @param targetHeight height to decode for or 0 for full size
+         */
+        public BitmapRef(String uri, int targetWidth, int targetHeight) {
+            this(uri, targetWidth, targetHeight, Collections.<Transformation>emptyList(), false);
+        }
+
+        /**
+         * Creates a new instance with given uri to be decoded for given size and transformed
+         *
+         * @param uri                a bitmap url
+         * @param targetWidth        width to decode for or 0 for full size
+         * @param targetHeight       height to decode for or 0 for full size
+         * @param transformations    applied in order once decoded
+         * @param persistTransformed true to keep the transformed bitmap in the disk cache too
+         */
+        public BitmapRef(String uri, int targetWidth, int targetHeight,
+                         List<Transformation> transformations, boolean persistTransformed) {
+            this(uri, targetWidth, targetHeight, transformations, persistTransformed, false);
+        }
+
+        private BitmapRef(String uri, int targetWidth, int targetHeight,
+                          List<Transformation> transformations, boolean persistTransformed, boolean cacheOnly) {
+            if (isInvalidUri(uri)) {
+                throw new IllegalArgumentException("Invalid URL");
+            }
+            from = uri;
+            String transformationKey = Transformations.keyOf(transformations);
+            key = cacheOnly ? cacheOnlyKeyFor(uri, targetWidth, targetHeight, transformationKey)
+                    : cacheKeyFor(uri, targetWidth, targetHeight, transformationKey);
+            this.cacheOnly = cacheOnly;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.transformations = transformations;
+            this.persistTransformed = persistTransformed && !transformations.isEmpty();
+            currentSize = previousSize = 0;
+        }
+
+        /**
+         * Creates a new instance decoded only from what is already in the disk cache, e.g. a
+         * preview. Cached under its own key so nobody waiting for it to be downloaded joins it.
+         */
+        static BitmapRef cacheOnly(String uri, int targetWidth, int targetHeight, List<Transformation> transformations) {
+            return new BitmapRef(uri, targetWidth, targetHeight, transformations, false, true);
+        }
+
+        /**
+         * @return key in the in memory cache of {@link #cacheOnly} refs
+         */
+        static String cacheOnlyKeyFor(String uri, int targetWidth, int targetHeight, String transformationKey) {
+            return cacheKeyFor(uri, targetWidth, targetHeight, transformationKey) + " ~cached";
+        }
+
+        /**
+         * @return Bitmap cached or null if was garbage collected
+         */
+        public Bitmap getBitmap() {
+            return bitmapRef;
+        }
+
+        /**
+         * @return URL associated to this BitmapRef
+         */
+        public String getUri() {
             return from;
         }
 
-        public int getCurrentSize() {
+        /**
+         * @return key of this ref in the in memory cache
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public long getCurrentSize() {
             return currentSize;
         }
 
-        public int getPreviousSize() {
-            return previousSize;
+        public long getPreviousSize() {
+            return previousSize;
+        }
+
+        public void setLoader(com.telly.wasp.BitmapLoader fileLoader) {
+            mFileLoader = fileLoader;
+        }
+
+        public com.telly.wasp.BitmapLoader getLoader() {
+            return mFileLoader;
+        }
+
+        void setReusable(boolean reusable) {
+            this.reusable = reusable;
+        }
+
+        /**
+         * Flags the bitmap as handed out to code that may hold on to it indefinitely
+         */
+        void markEscaped() {
+            escaped = true;
+        }
+
+        /**
+         * Records the view of given state is about to show the bitmap
+         */
+        synchronized void bind(BitmapObserver.ViewState view) {
+            if (bindings == null) {
+                bindings = new LinkedList<WeakReference<BitmapObserver.ViewState>>();
+            }
+            for (Iterator<WeakReference<BitmapObserver.ViewState>> iterator = bindings.iterator();
+                 iterator.hasNext(); ) {
+                BitmapObserver.ViewState bound = iterator.next().get();
+                if (bound == view) {
+                    return;
+                }
+                if (bound == null || !isShownBy(bound)) {
+                    iterator.remove();
+                }
+            }
+            bindings.add(new WeakReference<BitmapObserver.ViewState>(view));
+        }
+
+        /**
+         * @return true if the bitmap is or might be still in use by anything
+         */
+        synchronized boolean isInUse() {
+            if (escaped) {
+                return true;
+            }
+            if (bindings != null) {
+                for (WeakReference<BitmapObserver.ViewState> binding : bindings) {
+                    BitmapObserver.ViewState view = binding.get();
+                    if (view != null && isShownBy(view)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Called from any thread, hence it only looks at what was recorded of the view
+         *
+         * @return true if given view is, or is about to start, showing this bitmap
+         */
+        private boolean isShownBy(BitmapObserver.ViewState view) {
+            if (from.equals(view.url)) {
+                return true;
+            }
+            Bitmap bitmap = bitmapRef;
+            return bitmap != null && view.shown == bitmap;
+        }
+
+        /**
+         * @return true if the bitmap can be safely handed to a {@link BitmapPool} once evicted
+         */
+        boolean canBeReused() {
+            return reusable && bitmapRef != null && !isInUse();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof BitmapRef) {
+                BitmapRef otherRef = (BitmapRef) obj;
+                return key.equals(otherRef.getKey());
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+
+        /**
+         * @param bmp Bitmap to associate
+         */
+        public void loaded(Bitmap bmp) {
+            loaded(bmp, bmp == null ? 0 : BitmapUtils.getBitmapSize(bmp));
+        }
+
+        /**
+         * @param size size of given bitmap in bytes
+         */
+        void loaded(Bitmap bmp, long size) {
+            previousSize = currentSize;
+            currentSize = size;
+            bitmapRef = bmp;
+
+            Listener[] listeners;
+            int count;
+            synchronized (this) {
+                listeners = waiting;
+                count = waitingCount;
+                waiting = NO_LISTENERS;
+                waitingCount = 0;
+            }
+            // most recently added first, then the sticky one, as Observable used to
+            for (int i = count - 1; i >= 0; i--) {
+                listeners[i].onBitmapLoaded(this);
+            }
+            Listener sticky = stickyObserver;
+            if (sticky != null) {
+                sticky.onBitmapLoaded(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return super.toString() + "{ "
+                    + "bitmap: " + getBitmap()
+                    + "from: " + from
+                    + " key: " + key
+                    + " }";
+        }
+
+        public synchronized void setStickyObserver(Listener sticky) {
+            if (sticky != null) {
+                // it is notified on its own
+                deleteObserver(sticky);
+            }
+            stickyObserver = sticky;
+        }
+
+        /**
+         * Adds an observer to notify once loaded, unless that same instance was already added
+         */
+        public synchronized void addObserver(Listener observer) {
+            if (observer == null) {
+                throw new NullPointerException("observer == null");
+            }
+            if (observer == stickyObserver || indexOf(observer) >= 0) {
+                return;
+            }
+            if (waitingCount == waiting.length) {
+                Listener[] grown = new Listener[Math.max(4, waitingCount * 2)];
+                System.arraycopy(waiting, 0, grown, 0, waitingCount);
+                waiting = grown;
+            }
+            waiting[waitingCount++] = observer;
+        }
+
+        public synchronized void deleteObserver(Listener observer) {
+            int index = indexOf(observer);
+            if (index >= 0) {
+                removeAt(index);
+            }
+        }
+
+        /**
+         * Removes every observer but the sticky one
+         */
+        public synchronized void deleteObservers() {
+            for (int i = 0; i < waitingCount; i++) {
+                waiting[i] = null;
+            }
+            waitingCount = 0;
+        }
+
+        /**
+         * @return amount of observers, the sticky one included
+         */
+        public synchronized int countObservers() {
+            return waitingCount + (stickyObserver != null ? 1 : 0);
+        }
+
+        private int indexOf(Listener observer) {
+            for (int i = 0; i < waitingCount; i++) {
+                if (waiting[i] == observer) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void removeAt(int index) {
+            int moved = waitingCount - index - 1;
+            if (moved > 0) {
+                System.arraycopy(waiting, index + 1, waiting, index, moved);
+            }
+            waiting[--waitingCount] = null;
+        }
+
+        /**
+         * Drops waiting observers that no longer need this bitmap
+         *
+         * @return true if anyone is still waiting for it
+         */
+        synchronized boolean pruneObservers() {
+            for (int i = waitingCount - 1; i >= 0; i--) {
+                Listener observer = waiting[i];
+                if (observer instanceof BaseBitmapObserver && !((BaseBitmapObserver) observer).stillNeeds(from)) {
+                    removeAt(i);
+                }
+            }
+            return waitingCount > 0;
+        }
+
+        /**
+         * Removes any reference to hard referenced bitmap and observers
+         */
+        public void recycle() {
+            stickyObserver = null;
+            deleteObservers();
+            bitmapRef = null;
+            synchronized (this) {
+                bindings = null;
+            }
+        }
+    }
+
+    /**
+     * Calls that makes the dirty work
+     *
+     * @author evelio
+     */
+    private static class BitmapLoader {
+
+        /**
+         * Smaller interrupted downloads are not worth resuming
+         */
+        private static final long MIN_RESUMABLE_SIZE = 32 * 1024; // 32 KiB
+        private final LoadScheduler scheduler;
+        /**
+         * sources asked before the disk cache and the network
+         */
+        private final List<LoadStage> stages = new CopyOnWriteArrayList<LoadStage>();
+        /**
+         * reference to those already queued, and their task
+         */
+        private final Map<BitmapRef, LoadTask> queued;
+        /**
+         * loads given up because nobody needed them anymore
+         */
+        private final AtomicLong cancelledCount = new AtomicLong();
+        /**
+         * Loads that got a bitmap and how long they took, from being scheduled until
+         * observers were notified and until fully done
+         */
+        private final AtomicLong timedCount = new AtomicLong();
+        private final AtomicLong firstPixelNanos = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        /**
+         * bodies downloaded and stale files the server said were still valid
+         */
+        private final AtomicLong downloadCount = new AtomicLong();
+        private final AtomicLong notModifiedCount = new AtomicLong();
+        /**
+         * interrupted downloads resumed, bytes not downloaded again thanks to that, and
+         * interrupted downloads that had to start over
+         */
+        private final AtomicLong resumedCount = new AtomicLong();
+        private final AtomicLong resumedBytes = new AtomicLong();
+        private final AtomicLong fullRefetchCount = new AtomicLong();
+        /**
+         * Bitmaps to decode into
+         */
+        private final BitmapPool pool;
+        /**
+         * True while decodes are held, see {@link #pause(boolean)}
+         */
+        private volatile boolean paused;
+        private volatile boolean downloadWhilePaused;
+        /**
+         * loads held while paused, guarded by queued
+         */
+        private final List<LoadTask> held = new ArrayList<LoadTask>();
+        /**
+         * held loads nobody needed anymore once resumed
+         */
+        private final AtomicLong avoidedDecodeCount = new AtomicLong();
+        /**
+         * orders loads by the last time they were asked for
+         */
+        private final AtomicLong requestSequence = new AtomicLong();
+        /**
+         * where loads spend their time
+         */
+        private final LoadMetrics metrics = new LoadMetrics();
+
+        /**
+         * Default constructor
+         */
+        private BitmapLoader(BitmapPool pool) {
+            scheduler = new LoadScheduler();
+            queued = new HashMap<BitmapRef, LoadTask>();
+            this.pool = pool;
+        }
+
+        /**
+         * Loads a Bitmap into the given ref
+         *
+         * @param context context needed to download
+         * @param ref     Reference to use
+         * @param disk     disk cache to look into and save to
+         * @param raw      decoded pixels tier or null if disabled
+         * @param priority how urgent the load is, an already queued load gets bumped
+         */
+        private void load(Context context, BitmapRef ref, DiskCache disk, RawPixelCache raw, int priority) {
+            if (ref == null || BitmapUtils.isBitmapValid(ref.getBitmap())) {
+                return;
+            }
+
+            synchronized (queued) {
+                LoadTask task = queued.get(ref);
+                if (task != null) {
+                    // asked for again, most likely it is back on screen
+                    task.requestedAt = requestSequence.incrementAndGet();
+                    scheduler.reschedule(task, priority);
+                    return;
+                }
+                task = new LoadTask(context, ref, disk, raw, priority);
+                task.requestedAt = requestSequence.incrementAndGet();
+                queued.put(ref, task);
+                try {
+                    scheduler.execute(task);
+                } catch (RejectedExecutionException e) {
+                    queued.remove(ref);
+                    throw e;
+                }
+            }
         }
 
-        public void setLoader(com.telly.wasp.BitmapLoader fileLoader) {
-            mFileLoader = fileLoader;
+        private void loadTimed(long firstPixel, long total) {
+            timedCount.incrementAndGet();
+            firstPixelNanos.addAndGet(firstPixel);
+            totalNanos.addAndGet(total);
         }
 
-        public com.telly.wasp.BitmapLoader getLoader() {
-            return mFileLoader;
+        private long averageMillis(AtomicLong nanos) {
+            long count = timedCount.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos.get() / count);
         }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (obj instanceof BitmapRef) {
-                BitmapRef otherRef = (BitmapRef) obj;
-                return from.equals(otherRef.getUri());
+        /**
+         * Requests given uri, only what is left of it if a partial download can be resumed
+         *
+         * @param response response already got from revalidating a stale file, if any
+         * @param offset   length of the partial download, if any
+         */
+        private HttpDownloader.Response open(Context context, DiskCache disk, String uri,
+                                             HttpDownloader.Response response, long offset, CancelToken token)
+                throws IOException {
+            if (response == null) {
+                IOUtils.checkInternetPermission(context);
+                response = offset > 0
+                        ? HttpDownloader.resume(uri, disk.getPartialMetadata(uri), offset, token)
+                        : HttpDownloader.get(uri, null, token);
             }
-            return false;
+            if (response.isPartial()) {
+                resumedCount.incrementAndGet();
+                resumedBytes.addAndGet(response.getOffset());
+            } else {
+                downloadCount.incrementAndGet();
+                if (offset > 0) {
+                    fullRefetchCount.incrementAndGet();
+                }
+            }
+            return response;
         }
 
         /**
-         * @param bmp Bitmap to associate
+         * Gets rid of a download target that was not committed, partial downloads worth
+         * resuming are kept for the next attempt
          */
-        public void loaded(Bitmap bmp) {
-            previousSize = currentSize;
-            currentSize = BitmapUtils.getBitmapSize(bmp);
-            bitmapRef = bmp;
-
-            setChanged();
-            notifyObservers();
-            deleteObservers();
+        private void discardDownload(DiskCache disk, String uri, File temp, boolean partial) {
+            if (!partial) {
+                disk.abort(temp);
+                return;
+            }
+            boolean keep = temp.length() >= MIN_RESUMABLE_SIZE
+                    && HttpDownloader.canResume(disk.getPartialMetadata(uri));
+            disk.releasePartial(uri, keep);
         }
 
-        @Override
-        public String toString() {
-            return super.toString() + "{ "
-                    + "bitmap: " + getBitmap()
-                    + "from: " + from
-                    + " }";
+        /**
+         * Schedules the download of given uri to the disk cache as part of given group
+         *
+         * @return the scheduled task
+         */
+        private LoadScheduler.Task prefetch(Context context, String uri, DiskCache disk, Prefetch prefetch) {
+            PrefetchTask task = new PrefetchTask(context, uri, disk, prefetch);
+            scheduler.execute(task);
+            return task;
         }
 
-        public void setStickyObserver(Observer sticky) {
-            if (stickyObserver != null) {
-                if (stickyObserver.equals(sticky)) {
-                    return;
+        /**
+         * Downloads given uri to the disk cache without decoding it
+         *
+         * @return true if it is on disk, or being downloaded by someone else
+         */
+        private boolean fetch(Context context, DiskCache disk, String uri, CancelToken token) throws IOException {
+            if (disk.contains(uri)) {
+                return true;
+            }
+            File partial = disk.acquirePartial(uri);
+            if (partial == null) {
+                // a load is already at it
+                return true;
+            }
+            boolean complete = false;
+            try {
+                HttpDownloader.Response response = open(context, disk, uri, null, partial.length(), token);
+                InputStream input = response.getBody();
+                long length;
+                try {
+                    OutputStream output = new FileOutputStream(partial, response.isPartial());
+                    if (!response.isPartial()) {
+                        disk.putPartialMetadata(uri, response.getMetadata());
+                    }
+                    try {
+                        length = IOUtils.copy(input, output, token);
+                        metrics.downloaded(length);
+                    } finally {
+                        output.close();
+                    }
+                } finally {
+                    input.close();
+                }
+                int expected = response.getContentLength();
+                if (expected >= 0 && length != expected) {
+                    throw new IOException("Incomplete download of " + uri);
+                }
+                complete = true;
+                if (disk.commit(uri, partial) == null) {
+                    // too big for the disk cache
+                    return false;
+                }
+                disk.putMetadata(uri, response.getMetadata());
+                return true;
+            } finally {
+                if (complete) {
+                    // nothing left to resume
+                    disk.releasePartial(uri, false);
                 } else {
-                    deleteObserver(stickyObserver);
+                    discardDownload(disk, uri, partial, true);
                 }
             }
-            stickyObserver = sticky;
-            if (sticky != null) {
-                addObserver(sticky);
-            }
         }
 
-        @Override
-        public void deleteObservers() {
-            super.deleteObservers();
-            if (stickyObserver != null) {
-                addObserver(stickyObserver);
-            }
+        private void pause(boolean keepDownloading) {
+            downloadWhilePaused = keepDownloading;
+            paused = true;
         }
 
         /**
-         * Removes any reference to hard referenced bitmap and observers
+         * Schedules held loads again, the most recently requested being the newest ones
          */
-        public void recycle() {
-            stickyObserver = null;
-            deleteObservers();
-            bitmapRef = null;
+        private void resume() {
+            List<LoadTask> resumed;
+            synchronized (queued) {
+                if (!paused) {
+                    return;
+                }
+                paused = false;
+                resumed = new ArrayList<LoadTask>(held);
+                held.clear();
+            }
+            Collections.sort(resumed, new Comparator<LoadTask>() {
+                @Override
+                public int compare(LoadTask first, LoadTask second) {
+                    return first.requestedAt < second.requestedAt ? -1 : (first.requestedAt == second.requestedAt ? 0 : 1);
+                }
+            });
+            for (LoadTask task : resumed) {
+                if (task.isCancelled()) {
+                    avoidedDecodeCount.incrementAndGet();
+                    continue;
+                }
+                try {
+                    scheduler.execute(task);
+                } catch (RejectedExecutionException e) {
+                    synchronized (queued) {
+                        if (queued.get(task.reference) == task) {
+                            queued.remove(task.reference);
+                        }
+                    }
+                }
+            }
         }
-    }
-
-    /**
-     * Calls that makes the dirty work
-     *
-     * @author evelio
-     */
-    private static class BitmapLoader {
 
-        private final ExecutorService executor;
-        /**
-         * reference to those already queued
-         */
-        private final Set<BitmapRef> queued;
         /**
-         * Directory to use as a file cache
+         * Stops given observer waiting for given reference, cancelling its load only if
+         * nobody else waits for it. A load already running notices on its own.
+         *
+         * @return true if the load was cancelled
          */
-        private File cacheDir;
+        private boolean cancel(BitmapRef ref, BitmapRef.Listener observer) {
+            ref.deleteObserver(observer);
+            synchronized (queued) {
+                LoadTask task = queued.get(ref);
+                if (task == null || ref.pruneObservers()) {
+                    return false;
+                }
+                if (held.remove(task)) {
+                    avoidedDecodeCount.incrementAndGet();
+                } else if (!scheduler.remove(task)) {
+                    return false;
+                }
+                task.cancelled = true;
+                queued.remove(ref);
+            }
+            cancelledCount.incrementAndGet();
+            return true;
+        }
 
         /**
-         * Default constructor
+         * Removes queued loads nobody is waiting for anymore
+         *
+         * @return amount of loads removed
          */
-        private BitmapLoader() {
-            executor = Executors.newCachedThreadPool();
-            queued = Collections.synchronizedSet(new HashSet<BitmapRef>());
+        private int cancelStale() {
+            int count = 0;
+            synchronized (queued) {
+                for (Iterator<LoadTask> iterator = held.iterator(); iterator.hasNext(); ) {
+                    LoadTask task = iterator.next();
+                    if (!task.reference.pruneObservers()) {
+                        task.cancelled = true;
+                        iterator.remove();
+                        queued.remove(task.reference);
+                        avoidedDecodeCount.incrementAndGet();
+                        count++;
+                    }
+                }
+                for (Iterator<LoadTask> iterator = queued.values().iterator(); iterator.hasNext(); ) {
+                    LoadTask task = iterator.next();
+                    if (!task.reference.pruneObservers() && scheduler.remove(task)) {
+                        task.cancelled = true;
+                        iterator.remove();
+                        count++;
+                    }
+                }
+            }
+            cancelledCount.addAndGet(count);
+            return count;
         }
 
         /**
-         * Loads a Bitmap into the given ref
-         *
-         * @param context context needed to get app cache directory
-         * @param ref     Reference to use
+         * Downloads one URL of a {@link Prefetch} group
          */
-        private void load(Context context, BitmapRef ref) {
-            if (ref == null || BitmapUtils.isBitmapValid(ref.getBitmap())) {
-                return;
+        private class PrefetchTask extends LoadScheduler.Task implements CancelToken {
+            private static final String TAG = "BitmapHelper.PrefetchTask";
+            private final Context mContext;
+            private final String uri;
+            private final DiskCache disk;
+            private final Prefetch prefetch;
+
+            private PrefetchTask(Context context, String uri, DiskCache disk, Prefetch prefetch) {
+                super(PRIORITY_PREFETCH);
+                mContext = context;
+                this.uri = uri;
+                this.disk = disk;
+                this.prefetch = prefetch;
             }
 
-            if (cacheDir == null) {
-                cacheDir = IOUtils.getCacheDirectory(context);
+            @Override
+            protected void execute() {
+                if (isCancelled()) {
+                    return;
+                }
+                boolean success = false;
+                try {
+                    success = fetch(mContext, disk, uri, this);
+                } catch (InterruptedIOException e) {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    Log.w(TAG, "Unable to prefetch " + uri, e);
+                } catch (Exception e) {
+                    Log.w(TAG, "Unable to prefetch " + uri, e);
+                }
+                prefetch.itemDone(success);
             }
 
-            if (queued.add(ref)) {
-                executor.execute(new LoadTask(context, ref, cacheDir));
+            @Override
+            public boolean isCancelled() {
+                return prefetch.isCancelled();
             }
         }
 
-
-        private class LoadTask implements Runnable {
+        private class LoadTask extends LoadScheduler.Task implements CancelToken {
             private static final String TAG = "BitmapHelper.LoadTask";
             private final Context mContext;
             private final BitmapRef reference;
-            private final File cacheDir;
-
-            private LoadTask(Context context, BitmapRef ref, File cacheDir) {
+            private final DiskCache disk;
+            private final RawPixelCache raw;
+            private volatile boolean cancelled;
+            /**
+             * Download whose bitmap was decoded while streaming, still to be saved to disk
+             */
+            private TeeInputStream download;
+            private InputStream downloadInput;
+            private File downloadTemp;
+            private boolean downloadPartial;
+            private HttpDownloader.Response downloadResponse;
+            private boolean notified;
+            private LoadMetrics.Sample sample;
+            /**
+             * Transformed bitmap still to be saved to disk, see {@link BitmapRef#persistTransformed}
+             */
+            private Bitmap derived;
+            /**
+             * Bitmap handed by a {@link DirectBitmapLoader}, it may be shared
+             */
+            private Bitmap direct;
+            /**
+             * last time this load was asked for, see {@link #requestSequence}
+             */
+            private volatile long requestedAt;
+
+            private LoadTask(Context context, BitmapRef ref, DiskCache disk, RawPixelCache raw, int priority) {
+                super(priority);
                 mContext = context;
                 reference = ref;
-                this.cacheDir = cacheDir;
+                this.disk = disk;
+                this.raw = raw;
             }
 
             @Override
-            public void run() {
+            protected void execute() {
+                if (!isCancelled() && holdWhilePaused()) {
+                    return;
+                }
+                notified = false;
+                sample = new LoadMetrics.Sample(reference.getUri());
+                sample.addSince(LoadMetrics.Phase.QUEUE_WAIT, getScheduledAt());
                 try {
+                    if (isCancelled()) {
+                        return;
+                    }
                     //load it
-                    Bitmap bmp = doLoad();
-                    reference.loaded(bmp);
+                    Bitmap staged = fromStages();
+                    Bitmap bmp = staged;
+                    if (bmp == null && !cancelled) {
+                        bmp = doLoad();
+                    } else if (bmp != null && !cancelled) {
+                        bmp = transform(bmp, false);
+                    }
+                    // bitmaps from stages and loaders may be shared with anyone
+                    boolean reusable = bmp != null && bmp != staged && bmp != direct && bmp.isMutable();
+                    if (!cancelled) {
+                        // not until saved, it is being compressed meanwhile
+                        reference.setReusable(reusable && derived == null);
+                        notified = true;
+                        reference.loaded(bmp);
+                    }
+                    long firstPixel = System.nanoTime() - getScheduledAt();
+                    // observers already got it, now finish saving it
+                    completeDownload();
+                    if (completeDerived()) {
+                        reference.setReusable(reusable);
+                    }
+                    if (bmp != null) {
+                        sample.setSuccessful(true);
+                        loadTimed(firstPixel, System.nanoTime() - getScheduledAt());
+                    }
+                } catch (InterruptedIOException e) {
+                    if (!cancelled) {
+                        failed(e);
+                    }
                 } catch (Exception e) {
-                    if (e != null) {
-                        Log.e(TAG, "Unable to load bitmap", e);
+                    failed(e);
+                } finally {
+                    completeDownload();
+                    derived = null;
+                    direct = null;
+                    if (!cancelled) {
+                        metrics.record(sample);
+                    }
+                    sample = null;
+                    synchronized (queued) {
+                        if (queued.get(reference) == this) {
+                            queued.remove(reference);
+                        }
+                    }
+                }
+            }
+
+            private void downloaded(long bytes) {
+                metrics.downloaded(bytes);
+                sample.downloaded(bytes);
+            }
+
+            /**
+             * Holds this load until resumed, downloading it first if allowed
+             *
+             * @return true if held, false if it should go on right away
+             */
+            private boolean holdWhilePaused() {
+                if (!paused) {
+                    return false;
+                }
+                if (downloadWhilePaused && reference.getLoader() == null && !reference.cacheOnly) {
+                    try {
+                        fetch(mContext, disk, reference.getUri(), this);
+                    } catch (IOException e) {
+                        // it will be tried again once resumed, if still needed
+                        if (!cancelled) {
+                            Log.w(TAG, "Unable to download " + reference.getUri() + " while paused", e);
+                        }
+                    }
+                }
+                synchronized (queued) {
+                    if (!paused || queued.get(reference) != this) {
+                        // resumed or cancelled meanwhile
+                        return false;
+                    }
+                    held.add(this);
+                    return true;
+                }
+            }
+
+            private void failed(Exception e) {
+                Log.e(TAG, "Unable to load bitmap", e);
+                if (!notified) {
+                    // let whoever waits for it know there is nothing coming
+                    notified = true;
+                    reference.loaded(null);
+                }
+            }
+
+            /**
+             * Asks the stages plugged into the pipeline, in order
+             *
+             * @return the first bitmap any of them got or null
+             */
+            private Bitmap fromStages() throws IOException {
+                if (stages.isEmpty()) {
+                    return null;
+                }
+                LoadRequest request = new LoadRequest(mContext, reference.getUri(),
+                        reference.targetWidth, reference.targetHeight, this);
+                for (LoadStage stage : stages) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    Bitmap bitmap = stage.load(request);
+                    if (BitmapUtils.isBitmapValid(bitmap)) {
+                        return bitmap;
+                    }
+                }
+                return null;
+            }
+
+            /**
+             * Cancels this load once no observer needs it anymore
+             */
+            @Override
+            public boolean isCancelled() {
+                if (cancelled) {
+                    return true;
+                }
+                if (reference.pruneObservers()) {
+                    return false;
+                }
+                synchronized (queued) {
+                    // an observer registered meanwhile would find us queued and wait for us
+                    if (reference.pruneObservers()) {
+                        return false;
+                    }
+                    cancelled = true;
+                    if (queued.get(reference) == this) {
+                        queued.remove(reference);
                     }
                 }
-                queued.remove(reference);
+                cancelledCount.incrementAndGet();
+                return true;
             }
 
+            /**
+             * Loads the bitmap and transforms it, or loads it already transformed from disk
+             */
             private Bitmap doLoad() throws IOException {
+                if (reference.transformations.isEmpty()) {
+                    return loadSource();
+                }
+                Bitmap image = loadDerived();
+                if (image != null || cancelled) {
+                    return image;
+                }
+                image = loadSource();
+                if (image == null || cancelled) {
+                    return image;
+                }
+                image = transform(image, image != direct);
+                if (reference.persistTransformed) {
+                    derived = image;
+                }
+                return image;
+            }
+
+            /**
+             * Applies the transformations of the reference in order, intermediate bitmaps are
+             * recycled right away
+             *
+             * @param source bitmap to transform
+             * @param owned  true if nobody else has source, so it can be pooled once transformed
+             * @return the transformed bitmap
+             */
+            private Bitmap transform(Bitmap source, boolean owned) {
+                long start = System.nanoTime();
+                Bitmap current = source;
+                for (Transformation transformation : reference.transformations) {
+                    Bitmap next = transformation.transform(current);
+                    if (next != current && current != source) {
+                        current.recycle();
+                    }
+                    current = next;
+                }
+                if (owned && current != source && !pool.put(source)) {
+                    source.recycle();
+                }
+                sample.addSince(LoadMetrics.Phase.DECODE, start);
+                return current;
+            }
+
+            /**
+             * @return the transformed bitmap saved by an earlier load, only if the file it was
+             *         transformed from is still cached as is and fresh, or null
+             */
+            private Bitmap loadDerived() throws IOException {
+                if (!reference.persistTransformed) {
+                    return null;
+                }
+                String uri = reference.getUri();
+                long start = System.nanoTime();
+                File source = disk.get(uri);
+                File file = null;
+                if (source != null && HttpDownloader.isFresh(disk.getMetadata(uri))) {
+                    Properties metadata = disk.getMetadata(reference.getKey());
+                    if (metadata != null && signatureOf(source).equals(metadata.getProperty(META_DERIVED_FROM))) {
+                        file = disk.get(reference.getKey());
+                    }
+                }
+                sample.addSince(LoadMetrics.Phase.DISK, start);
+                if (file == null) {
+                    return null;
+                }
+                Bitmap image = decode(file);
+                if (image == null && !cancelled) {
+                    disk.remove(reference.getKey());
+                }
+                return image;
+            }
+
+            /**
+             * Saves the transformed bitmap to the disk cache, as PNG so transparency survives
+             *
+             * @return true if there was one, saved or not
+             */
+            private boolean completeDerived() {
+                Bitmap bitmap = derived;
+                derived = null;
+                if (bitmap == null) {
+                    return false;
+                }
+                long start = System.nanoTime();
+                File source = disk.get(reference.getUri());
+                if (source == null) {
+                    // too big for the disk cache, so nothing to tell whether it changed
+                    return true;
+                }
+                File temp = disk.newTempFile();
+                try {
+                    OutputStream output = new BufferedOutputStream(new FileOutputStream(temp));
+                    boolean compressed;
+                    try {
+                        compressed = bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+                    } finally {
+                        output.close();
+                    }
+                    if (compressed && disk.commit(reference.getKey(), temp) != null) {
+                        Properties metadata = new Properties();
+                        metadata.setProperty(META_DERIVED_FROM, signatureOf(source));
+                        disk.putMetadata(reference.getKey(), metadata);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to save " + reference.getKey(), e);
+                } finally {
+                    disk.abort(temp);
+                    sample.addSince(LoadMetrics.Phase.DISK, start);
+                }
+                return true;
+            }
+
+            private Bitmap loadSource() throws IOException {
+                if (reference.getLoader() instanceof DirectBitmapLoader) {
+                    Bitmap image = loadDirect((DirectBitmapLoader) reference.getLoader());
+                    if (image != null || cancelled) {
+                        return image;
+                    }
+                }
                 Bitmap image = null;
-                File file = BitmapHelper.getCacheFileFromUri(cacheDir, reference.from);
+                final String uri = reference.getUri();
+                long start = System.nanoTime();
+                File file = disk.get(uri);
+                sample.addSince(LoadMetrics.Phase.DISK, start);
+                HttpDownloader.Response response = null;
+
+                if (file != null && reference.getLoader() == null && !reference.cacheOnly) {
+                    start = System.nanoTime();
+                    response = revalidate(uri);
+                    sample.addSince(LoadMetrics.Phase.NETWORK, start);
+                    if (response != null) {
+                        // changed on the server
+                        file = null;
+                    }
+                }
+
+                if (file != null) {//Something is stored
+                    image = decodeCached(file);
+                    if (image == null && !cancelled) {
+                        // unreadable, most likely corrupt, get rid of it
+                        disk.remove(uri);
+                    }
+                }
+                if (reference.cacheOnly) {
+                    return image;
+                }
+
+                if (image == null && !cancelled) {//So far nothing is cached, lets download it
+                    // resume what an interrupted attempt left, unless someone else is at it
+                    File partial = reference.getLoader() == null ? disk.acquirePartial(uri) : null;
+                    File temp = partial != null ? partial : disk.newTempFile();
+                    boolean streamed = false;
+                    try {
+                        if (reference.getLoader() != null) {
+                            start = System.nanoTime();
+                            reference.getLoader().load(mContext, uri, temp);
+                            sample.addSince(LoadMetrics.Phase.NETWORK, start);
+                        } else {
+                            start = System.nanoTime();
+                            response = open(mContext, disk, uri, response, partial != null ? partial.length() : 0, this);
+                            sample.addSince(LoadMetrics.Phase.NETWORK, start);
+                            image = stream(response, temp, partial != null);
+                            if (image != null || cancelled) {
+                                streamed = image != null;
+                                return image;
+                            }
+                            // could not decode it on the fly, give it another try from disk
+                        }
+                        start = System.nanoTime();
+                        file = disk.commit(uri, temp);
+                        if (file == null) {
+                            // too big for the disk cache, still worth showing
+                            file = temp;
+                        } else if (response != null) {
+                            disk.putMetadata(uri, response.getMetadata());
+                        }
+                        sample.addSince(LoadMetrics.Phase.DISK, start);
+                        if (file.exists()) {
+                            image = decode(file);
+                            if (image == null && file != temp && !cancelled) {
+                                disk.remove(uri);
+                            }
+                        }
+                    } finally {
+                        if (!streamed) {
+                            discardDownload(disk, uri, temp, partial != null);
+                        }
+                    }
+                }
+                return image;
+            }
 
-                if (file.exists()) {//Something is stored
-                    image = BitmapUtils.loadBitmapFile(file.getCanonicalPath());
+            /**
+             * Gets the bitmap from the loader itself, neither the disk cache nor files involved
+             *
+             * @return the bitmap or null if the loader needs a file
+             */
+            private Bitmap loadDirect(DirectBitmapLoader directLoader) throws IOException {
+                if (isCancelled()) {
+                    return null;
                 }
+                String uri = reference.getUri();
+                long start = System.nanoTime();
+                try {
+                    direct = directLoader.loadBitmap(mContext, uri, reference.targetWidth, reference.targetHeight);
+                    if (BitmapUtils.isBitmapValid(direct)) {
+                        return direct;
+                    }
+                    direct = null;
+                    InputStream input = directLoader.openStream(mContext, uri);
+                    if (input == null) {
+                        return null;
+                    }
+                    try {
+                        Bitmap image = BitmapUtils.loadBitmapStream(new BufferedInputStream(input),
+                                reference.targetWidth, reference.targetHeight, pool);
+                        if (image == null) {
+                            metrics.decodeFailed();
+                            throw new IOException("Unable to decode " + uri);
+                        }
+                        return image;
+                    } finally {
+                        input.close();
+                    }
+                } finally {
+                    sample.addSince(LoadMetrics.Phase.DECODE, start);
+                }
+            }
+
+            /**
+             * Asks the server whether a stale cached file changed, files without freshness
+             * information are never stale
+             *
+             * @return response with the new content or null if the cached file can be used
+             */
+            private HttpDownloader.Response revalidate(String uri) throws InterruptedIOException {
+                Properties metadata = disk.getMetadata(uri);
+                if (HttpDownloader.isFresh(metadata)) {
+                    return null;
+                }
+                try {
+                    IOUtils.checkInternetPermission(mContext);
+                    HttpDownloader.Response response = HttpDownloader.get(uri, metadata, this);
+                    if (!response.isNotModified()) {
+                        return response;
+                    }
+                    response.discard();
+                    notModifiedCount.incrementAndGet();
+                    disk.putMetadata(uri, response.getMetadata());
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // most likely offline, a stale bitmap beats none
+                    Log.w(TAG, "Unable to revalidate " + uri, e);
+                }
+                return null;
+            }
 
-                if (image == null) {//So far nothing is cached, lets download it
-                    if (reference.getLoader() != null) {
-                        reference.getLoader().load(mContext, reference.getUri(), file);
-                    } else {
-                        IOUtils.downloadFile(mContext, reference.getUri(), file);
+            /**
+             * Decodes the image while it is being downloaded into given file, instead of
+             * reading it back once downloaded. On success the rest of the download is left
+             * for {@link #completeDownload()}, otherwise it is fully saved into temp.
+             *
+             * @return decoded bitmap or null if it could not be decoded on the fly
+             */
+            private Bitmap stream(HttpDownloader.Response response, File temp, boolean partial) throws IOException {
+                InputStream body = response.getBody();
+                OutputStream output = new FileOutputStream(temp, response.isPartial());
+                if (partial && !response.isPartial()) {
+                    // starting over, remember what to resume if interrupted
+                    disk.putPartialMetadata(reference.getUri(), response.getMetadata());
+                }
+                TeeInputStream tee = new TeeInputStream(body, output, this);
+                // a resumed download is decoded from what we already had onwards
+                InputStream input = response.isPartial()
+                        ? new SequenceInputStream(new FileInputStream(temp), tee) : tee;
+                Bitmap image = null;
+                try {
+                    long start = System.nanoTime();
+                    image = BitmapUtils.loadBitmapStream(new BufferedInputStream(input),
+                            reference.targetWidth, reference.targetHeight, pool);
+                    sample.addSince(LoadMetrics.Phase.DECODE, start);
+                    if (image != null) {
+                        download = tee;
+                        downloadInput = input;
+                        downloadTemp = temp;
+                        downloadPartial = partial;
+                        downloadResponse = response;
+                    } else if (!cancelled) {
+                        start = System.nanoTime();
+                        tee.drain();
+                        sample.addSince(LoadMetrics.Phase.NETWORK, start);
                     }
-                    if (file.exists()) {
-                        image = BitmapUtils.loadBitmapFile(file.getCanonicalPath());
+                } finally {
+                    if (image == null) {
+                        downloaded(tee.getCount());
+                        input.close();
+                        tee.close();
                     }
                 }
                 return image;
             }
+
+            /**
+             * Saves the rest of a streamed download and commits it to the disk cache, only if
+             * it was fully downloaded
+             */
+            private void completeDownload() {
+                if (download == null) {
+                    return;
+                }
+                try {
+                    long length;
+                    long start = System.nanoTime();
+                    try {
+                        length = download.drain();
+                    } finally {
+                        sample.addSince(LoadMetrics.Phase.NETWORK, start);
+                        downloaded(download.getCount());
+                        downloadInput.close();
+                        download.close();
+                    }
+                    int expected = downloadResponse.getContentLength();
+                    start = System.nanoTime();
+                    if ((expected < 0 || length == expected)
+                            && disk.commit(reference.getUri(), downloadTemp) != null) {
+                        disk.putMetadata(reference.getUri(), downloadResponse.getMetadata());
+                    }
+                    sample.addSince(LoadMetrics.Phase.DISK, start);
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to save " + reference.getUri(), e);
+                } finally {
+                    discardDownload(disk, reference.getUri(), downloadTemp, downloadPartial);
+                    download = null;
+                    downloadInput = null;
+                    downloadTemp = null;
+                    downloadResponse = null;
+                }
+            }
+
+            /**
+             * Same as {@link #decode(File)} for a file from the disk cache, trying its decoded
+             * pixels first and keeping them if it is decoded often enough
+             */
+            private Bitmap decodeCached(File file) throws IOException {
+                if (raw != null && !isCancelled()) {
+                    long start = System.nanoTime();
+                    Bitmap bitmap = raw.get(sourceKey(), file, pool);
+                    sample.addSince(LoadMetrics.Phase.DISK, start);
+                    if (bitmap != null) {
+                        return bitmap;
+                    }
+                }
+                Bitmap bitmap = decode(file);
+                if (bitmap != null && raw != null && raw.shouldStore(sourceKey())) {
+                    long start = System.nanoTime();
+                    raw.put(sourceKey(), file, bitmap);
+                    sample.addSince(LoadMetrics.Phase.DISK, start);
+                }
+                return bitmap;
+            }
+
+            /**
+             * @return key of the bitmap before transforming it
+             */
+            private String sourceKey() {
+                return cacheKeyFor(reference.getUri(), reference.targetWidth, reference.targetHeight);
+            }
+
+            /**
+             * @return decoded bitmap or null if it could not be decoded or the load was cancelled
+             */
+            private Bitmap decode(File file) throws IOException {
+                if (isCancelled()) {
+                    return null;
+                }
+                long start = System.nanoTime();
+                Bitmap bitmap = BitmapUtils.loadBitmapFile(file.getCanonicalPath(),
+                        reference.targetWidth, reference.targetHeight, pool);
+                sample.addSince(LoadMetrics.Phase.DECODE, start);
+                if (bitmap == null) {
+                    metrics.decodeFailed();
+                }
+                return bitmap;
+            }
         }
     }
 
-    private static class BitmapRefCache extends UpdateableLruCache<String, BitmapRef> {
+    static class BitmapRefCache extends UpdateableLruCache<String, BitmapRef> {
         private static final float DESIRED_PERCENTAGE_OF_MEMORY = 0.25f;
-        private static final int BYTES_IN_A_MEGABYTE = 1048576;
-        private static final int MINIMAL_MAX_SIZE = BYTES_IN_A_MEGABYTE * 4; // We want at least 4 MB
-        private static final int MAX_SIZE;
+        private static final long BYTES_IN_A_MEGABYTE = 1048576;
+        private static final long MINIMAL_MAX_SIZE = BYTES_IN_A_MEGABYTE * 4; // We want at least 4 MB
+        /**
+         * Default bitmap pool budget is {@link #defaultMaxSize()} / POOL_FRACTION
+         */
+        private static final int POOL_FRACTION = 8;
 
-        static {
-            final long maxMemory = AppUtils.isHoneycombPlus() ? Runtime.getRuntime().maxMemory() : Debug.getNativeHeapSize();
-            final long maxSizeLong = Math.max(MINIMAL_MAX_SIZE, (long) (maxMemory * DESIRED_PERCENTAGE_OF_MEMORY));
-            // We limit it to a value as some implementations return Long.MAX_VALUE
-            MAX_SIZE = (int) Math.min(((long) Integer.MAX_VALUE), Math.abs(maxSizeLong));
+        /**
+         * @return a quarter of the memory available to bitmaps, at least 4 MB
+         */
+        static long defaultMaxSize() {
+            long maxMemory = AppUtils.isHoneycombPlus() ? Runtime.getRuntime().maxMemory() : Debug.getNativeHeapSize();
+            if (maxMemory <= 0 || maxMemory == Long.MAX_VALUE) {
+                // Some implementations report no limit at all, stick to what we've got so far
+                maxMemory = Runtime.getRuntime().totalMemory();
+            }
+            return Math.max(MINIMAL_MAX_SIZE, (long) (maxMemory * DESIRED_PERCENTAGE_OF_MEMORY));
         }
 
-        private final Observer cacheObserver = new Observer() {
+        private final BitmapRef.Listener cacheObserver = new BitmapRef.Listener() {
             @Override
-            public void update(Observable observable, Object data) {
-                if (observable instanceof BitmapRef) {
-                    updateRef((BitmapRef) observable);
-                }
+            public void onBitmapLoaded(BitmapRef ref) {
+                updateRef(ref);
             }
         };
 
         private void updateRef(BitmapRef ref) {
-            final String uri = ref.getUri();
-            put(uri, ref);
+            put(ref.getKey(), ref);
         }
 
-        public BitmapRefCache() {
-            super(MAX_SIZE);
+        private final BitmapPool pool;
+
+        BitmapRefCache(BitmapPool pool, long maxSize) {
+            super(maxSize);
+            this.pool = pool;
+            setAdmissionPolicy(new TinyLfuAdmissionPolicy<String>());
         }
 
         @Override
-        protected int sizeOf(String key, BitmapRef value) {
+        protected long sizeOf(String key, BitmapRef value) {
             if (value != null) {
                 return value.getCurrentSize();
             }
@@ -804,7 +2785,7 @@ public class BitmapHelper {
         }
 
         @Override
-        protected int previousSizeOf(String key, BitmapRef value) {
+        protected long previousSizeOf(String key, BitmapRef value) {
             if (value != null) {
                 return value.getPreviousSize();
             }
@@ -815,8 +2796,52 @@ public class BitmapHelper {
         protected void entryRemoved(boolean evicted, String key, BitmapRef oldValue, BitmapRef newValue) {
             super.entryRemoved(evicted, key, oldValue, newValue);
             if (oldValue != null && !oldValue.equals(newValue)) {
+                Bitmap bitmap = oldValue.getBitmap();
+                boolean reuse = oldValue.canBeReused();
                 // We now just recycle the ref by removing observers and nulling the bitmap ref
                 oldValue.recycle();
+                if (reuse) {
+                    // nobody else is using it, let the next decode have its pixels
+                    pool.put(bitmap);
+                }
+            }
+        }
+
+        @Override
+        protected void entryRejected(String key, BitmapRef value) {
+            // its bitmap was just handed to whoever waited for it, it is theirs to keep:
+            // it is only forgotten by the cache, neither recycled nor reused
+        }
+
+        /**
+         * Evicts bitmaps no view shows, least recently used first, and then those shown
+         * until the cache fits in given size. References still loading are kept, evicting
+         * them would drop whoever waits for them.
+         */
+        void trimToSizePreferringUnused(long maxSize) {
+            if (size() <= maxSize) {
+                return;
+            }
+            List<String> inUse = new ArrayList<String>();
+            for (Map.Entry<String, BitmapRef> entry : snapshot().entrySet()) {
+                if (size() <= maxSize) {
+                    return;
+                }
+                BitmapRef ref = entry.getValue();
+                if (ref.getBitmap() == null) {
+                    continue;
+                }
+                if (ref.isInUse()) {
+                    inUse.add(entry.getKey());
+                } else {
+                    remove(entry.getKey());
+                }
+            }
+            for (String key : inUse) {
+                if (size() <= maxSize) {
+                    return;
+                }
+                remove(key);
             }
         }
 
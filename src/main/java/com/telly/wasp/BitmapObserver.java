@@ -5,6 +5,8 @@ import android.os.Handler;
 import android.widget.ImageView;
 
 import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Observer used to set the bitmap in given ImageView
@@ -13,7 +15,17 @@ import java.lang.ref.WeakReference;
  * @version 1.0
  */
 public class BitmapObserver extends BaseBitmapObserver {
+    /**
+     * State of every view observers were created for, guarded by itself
+     */
+    private static final Map<ImageView, ViewState> viewStates = new WeakHashMap<ImageView, ViewState>();
+
     private final WeakReference<ImageView> viewRef;
+    private final ViewState viewState;
+    /**
+     * Url whose bitmap was shown last, so its preview is not shown over it
+     */
+    private volatile String shownUrl;
 
     /**
      * Creates an observer by associating a given imgView with given URL.
@@ -27,9 +39,22 @@ public class BitmapObserver extends BaseBitmapObserver {
     public BitmapObserver(ImageView imgView, String url, Handler uiThreadHandler) {
         super(url, uiThreadHandler);
         viewRef = new WeakReference<ImageView>(imgView);
+        viewState = stateOf(imgView);
+        viewState.url = url;
         imgView.setTag(url);
     }
 
+    private static ViewState stateOf(ImageView view) {
+        synchronized (viewStates) {
+            ViewState state = viewStates.get(view);
+            if (state == null) {
+                state = new ViewState();
+                viewStates.put(view, state);
+            }
+            return state;
+        }
+    }
+
     @Override
     protected void doLoad(BitmapHelper.BitmapRef ref, final Bitmap bitmap) {
         final ImageView actualView = viewRef.get();
@@ -37,16 +62,68 @@ public class BitmapObserver extends BaseBitmapObserver {
             return;
         }
         final String refUri = ref.getUri();
-        getHandler().post(new Runnable() {
+        // let the cache know this view shows the bitmap so it is not reused meanwhile
+        ref.bind(viewState);
+        DeliveryQueue.forHandler(getHandler()).enqueue(new DeliveryQueue.Delivery() {
             @Override
-            public void run() {
+            boolean isStale() {
                 // in order to avoid repeating thumbnails or setting wrong ones, we check here
                 // the last tag (url) that was set to the image viewRef. that way, this we make
                 // sure the bitmap that is shown is the correct one
-                if (refUri.equals(actualView.getTag())) {
-                    actualView.setImageBitmap(bitmap);
-                }
+                return !refUri.equals(actualView.getTag());
+            }
+
+            @Override
+            void deliver() {
+                shownUrl = refUri;
+                viewState.shown = bitmap;
+                actualView.setImageBitmap(bitmap);
+            }
+        });
+    }
+
+    @Override
+    protected void doLoadPreview(BitmapHelper.BitmapRef ref, final Bitmap preview) {
+        final ImageView actualView = viewRef.get();
+        final String url = getUrl();
+        if (actualView == null || url == null) {
+            return;
+        }
+        ref.bind(viewState);
+        DeliveryQueue.forHandler(getHandler()).enqueue(new DeliveryQueue.Delivery() {
+            @Override
+            boolean isStale() {
+                // moved on to another url or the bitmap itself is already shown
+                return !url.equals(actualView.getTag()) || url.equals(shownUrl);
+            }
+
+            @Override
+            void deliver() {
+                viewState.shown = preview;
+                actualView.setImageBitmap(preview);
             }
         });
     }
+
+    @Override
+    boolean stillNeeds(String uri) {
+        // the view may have been recycled to show another url meanwhile, asked from loader
+        // threads so only what was recorded on the UI thread is looked at
+        return viewRef.get() != null && uri.equals(viewState.url);
+    }
+
+    @Override
+    boolean retainsBitmap() {
+        // usage is tracked through BitmapRef#bind instead
+        return false;
+    }
+
+    /**
+     * What a view was last asked to show by an observer and what it was last given to show,
+     * both written on the UI thread, so other threads never have to touch the view itself
+     */
+    static class ViewState {
+        volatile String url;
+        volatile Bitmap shown;
+    }
 }
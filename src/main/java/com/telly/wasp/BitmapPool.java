@@ -0,0 +1,223 @@
+package com.telly.wasp;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Pool of mutable bitmaps no longer in use, grouped by width, height and config, so their
+ * pixel buffers can be reused by later decodes instead of allocating new ones.
+ * <p/>
+ * It has its own byte budget, once exceeded bitmaps from the least recently used group
+ * are recycled for good.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public class BitmapPool {
+    private final LinkedHashMap<Key, LinkedList<Bitmap>> groups;
+    private long size;
+    private long maxSize;
+
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+
+    /**
+     * @param maxSize maximum amount of bytes to keep pooled, 0 disables pooling
+     */
+    public BitmapPool(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        this.maxSize = maxSize;
+        this.groups = new LinkedHashMap<Key, LinkedList<Bitmap>>(0, 0.75f, true);
+    }
+
+    /**
+     * Offers a bitmap to the pool, which takes ownership of it: the caller must not draw,
+     * modify nor recycle it after this call.
+     *
+     * @param bitmap a mutable bitmap no longer in use
+     * @return true if the bitmap was pooled, false if it was not suitable or does not fit
+     */
+    public boolean put(Bitmap bitmap) {
+        if (!BitmapUtils.isBitmapValid(bitmap) || !bitmap.isMutable() || bitmap.getConfig() == null) {
+            return false;
+        }
+        long bitmapSize = BitmapUtils.getBitmapSize(bitmap);
+        synchronized (this) {
+            if (bitmapSize > maxSize) {
+                return false;
+            }
+            Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            LinkedList<Bitmap> group = groups.get(key);
+            if (group == null) {
+                group = new LinkedList<Bitmap>();
+                groups.put(key, group);
+            }
+            group.addLast(bitmap);
+            size += bitmapSize;
+            putCount++;
+        }
+        trimToSize(maxSize);
+        return true;
+    }
+
+    /**
+     * Takes a pooled bitmap out of the pool
+     *
+     * @return a bitmap with exactly given dimensions and config or null if there is none,
+     *         its pixels are not cleared
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        LinkedList<Bitmap> group = groups.get(new Key(width, height, config));
+        while (group != null && !group.isEmpty()) {
+            Bitmap bitmap = group.removeLast();
+            if (group.isEmpty()) {
+                groups.remove(new Key(width, height, config));
+            }
+            if (BitmapUtils.isBitmapValid(bitmap)) {
+                size -= BitmapUtils.getBitmapSize(bitmap);
+                hitCount++;
+                return bitmap;
+            }
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Recycles pooled bitmaps until the pool holds at most given amount of bytes
+     *
+     * @param maxSize maximum amount of bytes to keep, 0 empties the pool
+     */
+    public void trimToSize(long maxSize) {
+        while (true) {
+            Bitmap toRecycle;
+            synchronized (this) {
+                if (size <= maxSize || groups.isEmpty()) {
+                    break;
+                }
+                Iterator<Map.Entry<Key, LinkedList<Bitmap>>> iterator = groups.entrySet().iterator();
+                LinkedList<Bitmap> eldest = iterator.next().getValue();
+                toRecycle = eldest.removeFirst();
+                if (eldest.isEmpty()) {
+                    iterator.remove();
+                }
+                size -= BitmapUtils.getBitmapSize(toRecycle);
+                evictionCount++;
+            }
+            toRecycle.recycle();
+        }
+    }
+
+    /**
+     * Recycles every pooled bitmap
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Changes the pool budget, trimming it right away if needed
+     *
+     * @param maxSize maximum amount of bytes to keep pooled, 0 disables pooling
+     */
+    public void resize(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @return true if this pool may hold any bitmap at all
+     */
+    public synchronized boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return amount of bytes currently pooled
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return number of times {@link #get} returned a bitmap
+     */
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return number of times {@link #get} found nothing suitable
+     */
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    /**
+     * @return number of bitmaps accepted by {@link #put}
+     */
+    public synchronized long putCount() {
+        return putCount;
+    }
+
+    /**
+     * @return number of pooled bitmaps recycled to stay within budget
+     */
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long accesses = hitCount + missCount;
+        long hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("BitmapPool[size=%d,maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                size, maxSize, hitCount, missCount, hitPercent);
+    }
+
+    private static final class Key {
+        private final int width;
+        private final int height;
+        private final Bitmap.Config config;
+
+        private Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + (config != null ? config.hashCode() : 0);
+            return result;
+        }
+    }
+}
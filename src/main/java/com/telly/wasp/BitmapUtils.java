@@ -3,30 +3,260 @@ package com.telly.wasp;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * @author evelio
  * @version 1.0
  */
 public class BitmapUtils {
+    /**
+     * Bytes of a stream kept around to rewind it after reading the image bounds
+     */
+    public static final int STREAM_MARK_LIMIT = 64 * 1024; // 64 KiB
     private static final BitmapFactory.Options normalOptions = new BitmapFactory.Options();
+    /**
+     * BitmapFactory.Options#inBitmap and #inMutable, only available on Honeycomb+
+     */
+    private static final Field inBitmapField;
+    private static final Field inMutableField;
+    /**
+     * Decodes given up because the bitmap did not fit in memory
+     */
+    private static final AtomicLong outOfMemoryCount = new AtomicLong();
+    /**
+     * Also told about each of them, see {@link BitmapHelper#getLoadMetrics()}
+     */
+    private static volatile LoadMetrics loadMetrics;
 
     static {
         normalOptions.inDither = true;
         normalOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
         normalOptions.inPurgeable = true;
         normalOptions.inScaled = true;
+
+        Field inBitmap = null;
+        Field inMutable = null;
+        if (AppUtils.isHoneycombPlus()) {
+            try {
+                inBitmap = BitmapFactory.Options.class.getField("inBitmap");
+                inMutable = BitmapFactory.Options.class.getField("inMutable");
+            } catch (NoSuchFieldException e) {
+                inBitmap = inMutable = null;
+            }
+        }
+        inBitmapField = inBitmap;
+        inMutableField = inMutable;
     }
 
     public static Bitmap loadBitmapFile(String path) {
         try {
             return BitmapFactory.decodeFile(path, normalOptions);
         } catch (OutOfMemoryError error) {
+            outOfMemory();
+            return null;
+        }
+    }
+
+    /**
+     * Same as {@link #loadBitmapFile(String)} but the decoded bitmap is mutable and, where
+     * the platform allows it, reuses the pixel buffer of a pooled bitmap with the same
+     * dimensions instead of allocating a new one.
+     *
+     * @param path file to decode
+     * @param pool pool to take a bitmap to reuse from, may be null
+     * @return decoded bitmap or null if the file could not be decoded
+     */
+    public static Bitmap loadBitmapFile(String path, BitmapPool pool) {
+        return loadBitmapFile(path, 0, 0, pool);
+    }
+
+    /**
+     * Decodes given file downsampled to roughly the given target size, the result is never
+     * smaller than the target unless the image itself is. Image bounds are read first so
+     * a huge image never gets decoded in full just to be shown as a thumbnail.
+     *
+     * @param path         file to decode
+     * @param targetWidth  desired width or 0 for full size
+     * @param targetHeight desired height or 0 for full size
+     * @param pool         pool to take a bitmap to reuse from, may be null
+     * @return decoded bitmap or null if the file could not be decoded
+     */
+    public static Bitmap loadBitmapFile(String path, int targetWidth, int targetHeight, BitmapPool pool) {
+        boolean reuse = pool != null && pool.isEnabled() && canReuseBitmaps();
+        boolean resize = targetWidth > 0 && targetHeight > 0;
+        if (!reuse && !resize) {
+            return loadBitmapFile(path);
+        }
+        try {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, bounds);
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                return null;
+            }
+
+            BitmapFactory.Options options = decodingOptions(bounds, targetWidth, targetHeight, reuse);
+            // older platforms can only reuse bitmaps with the exact same size, no sampling
+            Bitmap candidate = reuse && options.inSampleSize == 1
+                    ? pool.get(bounds.outWidth, bounds.outHeight, options.inPreferredConfig) : null;
+            if (candidate != null) {
+                setInBitmap(options, candidate);
+                try {
+                    return BitmapFactory.decodeFile(path, options);
+                } catch (IllegalArgumentException e) {
+                    // the decoder refused to reuse it (unsupported format), decode as usual
+                    candidate.recycle();
+                    setInBitmap(options, null);
+                }
+            }
+            return BitmapFactory.decodeFile(path, options);
+        } catch (OutOfMemoryError error) {
+            outOfMemory();
+            return null;
+        }
+    }
+
+    /**
+     * Same as {@link #loadBitmapFile(String, int, int, BitmapPool)} but decodes straight
+     * from a stream, e.g. while it is being downloaded. Bounds are read within the first
+     * {@link #STREAM_MARK_LIMIT} bytes, which must be enough to find the image header.
+     *
+     * @param input        stream to decode, must support {@link InputStream#mark(int)}
+     * @param targetWidth  desired width or 0 for full size
+     * @param targetHeight desired height or 0 for full size
+     * @param pool         pool to take a bitmap to reuse from, may be null
+     * @return decoded bitmap or null if it could not be decoded, input is left in an
+     *         unknown position
+     */
+    public static Bitmap loadBitmapStream(InputStream input, int targetWidth, int targetHeight, BitmapPool pool) {
+        boolean reuse = pool != null && pool.isEnabled() && canReuseBitmaps();
+        boolean resize = targetWidth > 0 && targetHeight > 0;
+        try {
+            if (!reuse && !resize) {
+                return BitmapFactory.decodeStream(input, null, normalOptions);
+            }
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            input.mark(STREAM_MARK_LIMIT);
+            BitmapFactory.decodeStream(input, null, bounds);
+            input.reset();
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                return null;
+            }
+
+            BitmapFactory.Options options = decodingOptions(bounds, targetWidth, targetHeight, reuse);
+            Bitmap candidate = reuse && options.inSampleSize == 1
+                    ? pool.get(bounds.outWidth, bounds.outHeight, options.inPreferredConfig) : null;
+            if (candidate != null) {
+                setInBitmap(options, candidate);
+                try {
+                    return BitmapFactory.decodeStream(input, null, options);
+                } catch (IllegalArgumentException e) {
+                    // refused to reuse it, the stream can not be rewound to try again
+                    candidate.recycle();
+                    return null;
+                }
+            }
+            return BitmapFactory.decodeStream(input, null, options);
+        } catch (IOException e) {
+            // header beyond the mark limit
+            return null;
+        } catch (OutOfMemoryError error) {
+            outOfMemory();
             return null;
         }
     }
 
-    public static int getBitmapSize(Bitmap bitmap) {
-        return bitmap == null || bitmap.isRecycled() ? 0 : bitmap.getRowBytes() * bitmap.getHeight();
+    private static BitmapFactory.Options decodingOptions(BitmapFactory.Options bounds, int targetWidth, int targetHeight,
+                                                         boolean reuse) {
+        BitmapFactory.Options options = reuse ? newReusableOptions() : newOptions();
+        if (targetWidth > 0 && targetHeight > 0) {
+            options.inSampleSize = calculateInSampleSize(bounds.outWidth, bounds.outHeight, targetWidth, targetHeight);
+        }
+        return options;
+    }
+
+    /**
+     * @return the largest power of two sample size that keeps both dimensions equal or
+     *         bigger than the target ones
+     */
+    public static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return amount of decodes that returned null because the bitmap did not fit in memory
+     */
+    public static long getOutOfMemoryCount() {
+        return outOfMemoryCount.get();
+    }
+
+    /**
+     * Records a bitmap that did not fit in memory, wherever the error was swallowed
+     */
+    static void outOfMemory() {
+        outOfMemoryCount.incrementAndGet();
+        LoadMetrics metrics = loadMetrics;
+        if (metrics != null) {
+            metrics.outOfMemory();
+        }
+    }
+
+    static void setLoadMetrics(LoadMetrics metrics) {
+        loadMetrics = metrics;
+    }
+
+    /**
+     * @return true if this platform can decode into an existing bitmap
+     */
+    public static boolean canReuseBitmaps() {
+        return inBitmapField != null && inMutableField != null;
+    }
+
+    private static BitmapFactory.Options newOptions() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inDither = normalOptions.inDither;
+        options.inPreferredConfig = normalOptions.inPreferredConfig;
+        options.inPurgeable = normalOptions.inPurgeable;
+        options.inScaled = normalOptions.inScaled;
+        return options;
+    }
+
+    private static BitmapFactory.Options newReusableOptions() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inDither = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        // purgeable bitmaps can not be reused
+        options.inPurgeable = false;
+        options.inScaled = true;
+        options.inSampleSize = 1;
+        try {
+            inMutableField.setBoolean(options, true);
+        } catch (IllegalAccessException ignored) {
+        }
+        return options;
+    }
+
+    private static void setInBitmap(BitmapFactory.Options options, Bitmap bitmap) {
+        try {
+            inBitmapField.set(options, bitmap);
+        } catch (IllegalAccessException ignored) {
+        }
+    }
+
+    public static long getBitmapSize(Bitmap bitmap) {
+        return bitmap == null || bitmap.isRecycled() ? 0 : (long) bitmap.getRowBytes() * bitmap.getHeight();
     }
 
     public static boolean isBitmapValid(Bitmap bmp) {
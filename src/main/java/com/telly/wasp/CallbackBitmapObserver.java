@@ -43,23 +43,29 @@ public class CallbackBitmapObserver extends BaseBitmapObserver {
         if (mCallbackRef == null || !BitmapUtils.isBitmapValid(bitmap) || !mCallbackRef.stillNeedsUrl(refUri)) {
             return;
         }
-        Runnable runnableCallback = new Runnable() {
-            @Override
-            public void run() {
-                // in order to avoid repeating thumbnails or setting wrong ones, we check here
-                // the last tag (url) that was set to the image viewRef. that way, this we make
-                // sure the bitmap that is shown is the correct one
-                if (mCallbackRef.stillNeedsUrl(refUri)) {
-                    mCallbackRef.receiveBitmap(refUri, bitmap);
-                }
-            }
-        };
         Handler handler = getHandler();
         if (handler == null) { // if there is no handler, just run the callback
-            runnableCallback.run();
-        } else {
-            handler.post(runnableCallback);
+            mCallbackRef.receiveBitmap(refUri, bitmap);
+            return;
         }
+        DeliveryQueue.forHandler(handler).enqueue(new DeliveryQueue.Delivery() {
+            @Override
+            boolean isStale() {
+                // in order to avoid repeating thumbnails or setting wrong ones, we check here
+                // whether the callback still wants this url
+                return !mCallbackRef.stillNeedsUrl(refUri);
+            }
+
+            @Override
+            void deliver() {
+                mCallbackRef.receiveBitmap(refUri, bitmap);
+            }
+        });
+    }
+
+    @Override
+    boolean stillNeeds(String uri) {
+        return mCallbackRef != null && super.stillNeeds(uri) && mCallbackRef.stillNeedsUrl(uri);
     }
 
     /**
@@ -68,7 +74,8 @@ public class CallbackBitmapObserver extends BaseBitmapObserver {
     public static interface BitmapCallback {
         /**
          * Indicate if this callback should be notified by calling {@link #receiveBitmap(String, android.graphics.Bitmap)}
-         * when the bitmap is ready
+         * when the bitmap is ready. Also polled from loading threads while the bitmap is
+         * being loaded, once no callback needs it anymore the load gets cancelled.
          *
          * @param uri Uniform Resource Identifier pointing to a bitmap (PNG, JPG, etc.)
          * @return true if this callback needs the bitmap at a given URL
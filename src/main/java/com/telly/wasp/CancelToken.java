@@ -0,0 +1,16 @@
+package com.telly.wasp;
+
+/**
+ * Lets long running work, like a download, find out it is no longer needed
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public interface CancelToken {
+    /**
+     * Polled from the working thread, must be cheap
+     *
+     * @return true if the work should stop as soon as possible
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,140 @@
+package com.telly.wasp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Hands loaded bitmaps over to a UI thread in batches, at most one per frame, instead of
+ * posting a message per bitmap. Deliveries nobody needs anymore are dropped both when
+ * queued, still on the loading thread, and right before being applied.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+final class DeliveryQueue implements Runnable {
+    /**
+     * Deliveries are applied on the next frame boundary, 60 fps
+     */
+    static final long FRAME_MILLIS = 16;
+    /**
+     * One queue per thread, guarded by itself. Queues only hold their looper weakly, or
+     * their entries would never go away.
+     */
+    private static final Map<Looper, DeliveryQueue> QUEUES = new WeakHashMap<Looper, DeliveryQueue>();
+
+    private final WeakReference<Looper> looper;
+    private final LoadMetrics metrics;
+    /**
+     * Deliveries waiting for the next batch and the list the last batch was applied from,
+     * swapped on every batch so none is allocated. Guarded by this.
+     */
+    private List<Delivery> pending = new ArrayList<Delivery>();
+    private List<Delivery> applying = new ArrayList<Delivery>();
+    private boolean scheduled;
+
+    private DeliveryQueue(Looper looper, LoadMetrics metrics) {
+        this.looper = new WeakReference<Looper>(looper);
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the queue delivering to the thread of given handler
+     */
+    static DeliveryQueue forHandler(Handler handler) {
+        Looper looper = handler.getLooper();
+        synchronized (QUEUES) {
+            DeliveryQueue queue = QUEUES.get(looper);
+            if (queue == null) {
+                queue = new DeliveryQueue(looper, BitmapHelper.getInstance().getLoadMetrics());
+                QUEUES.put(looper, queue);
+            }
+            return queue;
+        }
+    }
+
+    /**
+     * Queues given delivery for the next batch, unless it is already stale
+     */
+    void enqueue(Delivery delivery) {
+        if (delivery.isStale()) {
+            metrics.deliveryDropped();
+            return;
+        }
+        synchronized (this) {
+            pending.add(delivery);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        Looper target = looper.get();
+        if (target == null) {
+            // its thread is gone, nobody to deliver to
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        new Handler(target).postAtTime(this, now - now % FRAME_MILLIS + FRAME_MILLIS);
+    }
+
+    /**
+     * Applies a batch, on the UI thread
+     */
+    @Override
+    public void run() {
+        List<Delivery> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = applying;
+            applying = batch;
+            scheduled = false;
+        }
+        RuntimeException failure = null;
+        int size = batch.size();
+        for (int i = 0; i < size; i++) {
+            Delivery delivery = batch.get(i);
+            try {
+                if (delivery.isStale()) {
+                    metrics.deliveryDropped();
+                } else {
+                    delivery.deliver();
+                    metrics.delivered(System.nanoTime() - delivery.queuedAt);
+                }
+            } catch (RuntimeException e) {
+                // the rest of the batch still gets delivered, the first failure is rethrown
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        batch.clear();
+        metrics.deliveryBatch();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A loaded bitmap on its way to whatever shows it
+     */
+    abstract static class Delivery {
+        private final long queuedAt = System.nanoTime();
+
+        /**
+         * @return true if it is not wanted anymore, e.g. the view shows another URL by now.
+         *         Called from both the loading and the UI thread.
+         */
+        abstract boolean isStale();
+
+        /**
+         * Shows the bitmap, on the UI thread
+         */
+        abstract void deliver();
+    }
+}
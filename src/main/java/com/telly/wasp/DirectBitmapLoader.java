@@ -0,0 +1,39 @@
+package com.telly.wasp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link BitmapLoader} able to hand its bitmap straight to the pipeline, skipping the disk
+ * cache, e.g. because it is already on the device. Asked for a bitmap first, then for a
+ * stream and only then, if neither is available, to load into a file.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public interface DirectBitmapLoader extends BitmapLoader {
+    /**
+     * Called from loading threads
+     *
+     * @param context      a context used to access the bitmap
+     * @param uri          the uri or image identifier
+     * @param targetWidth  width it is requested for or 0 for full size, a hint
+     * @param targetHeight height it is requested for or 0 for full size, a hint
+     * @return the bitmap, never recycled nor reused by the pipeline as it may be shared, or
+     *         null to be asked for a stream instead
+     */
+    Bitmap loadBitmap(Context context, String uri, int targetWidth, int targetHeight) throws IOException;
+
+    /**
+     * Called from loading threads when {@link #loadBitmap} gave nothing
+     *
+     * @param context a context used to access the bitmap
+     * @param uri     the uri or image identifier
+     * @return a stream with the encoded bitmap, closed by the caller once decoded, or null to
+     *         be asked to {@link #load} into a file instead
+     */
+    InputStream openStream(Context context, String uri) throws IOException;
+}
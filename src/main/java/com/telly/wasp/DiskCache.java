@@ -0,0 +1,717 @@
+package com.telly.wasp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least recently used cache of files in a directory of its own.
+ * <p/>
+ * Entries are keyed by the SHA-1 of their uri and written to a temporary file first,
+ * they only become visible once {@link #commit}ted. Every operation is appended to a
+ * journal that is replayed on startup, so the directory never needs to be listed:
+ * <pre>
+ *     wasp.DiskCache
+ *     1
+ *
+ *     CLEAN 3400330d1dfc7f3f7f4b8d4d803dfcf6a2d2b1f1 12345
+ *     READ 3400330d1dfc7f3f7f4b8d4d803dfcf6a2d2b1f1
+ *     REMOVE 3400330d1dfc7f3f7f4b8d4d803dfcf6a2d2b1f1
+ * </pre>
+ * CLEAN lines record a committed entry and its size, READ lines an access and REMOVE lines
+ * a deletion. The journal is compacted once it holds too many redundant lines.
+ * <p/>
+ * An entry may have small metadata, such as HTTP validators, stored next to its file and
+ * removed along with it. Metadata is not accounted in the cache size.
+ * <p/>
+ * Interrupted downloads may be kept as partial files, outside of the cache size too, so
+ * they can be resumed later on. Only the {@link #MAX_PARTIALS} most recent are kept.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+class DiskCache {
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TMP = "journal.tmp";
+    static final String TMP_DIRECTORY = "tmp";
+    static final String PARTIAL_DIRECTORY = "partial";
+    static final String METADATA_SUFFIX = ".meta";
+    /**
+     * Partial downloads kept around at most, oldest go first
+     */
+    static final int MAX_PARTIALS = 16;
+    static final String MAGIC = "wasp.DiskCache";
+    static final String VERSION = "1";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final int COMPACT_THRESHOLD = 2000;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+    private final File tmpDirectory;
+    private final File partialDirectory;
+    /**
+     * Keys of the partial downloads handed out. Guarded by this.
+     */
+    private final Set<String> partialsInUse = new HashSet<String>();
+    private final File journalFile;
+    private final AtomicLong tmpCounter = new AtomicLong();
+    /**
+     * Entry key to size, in access order. Guarded by this.
+     */
+    private final LinkedHashMap<String, Long> entries;
+    private long size;
+    private long maxSize;
+    private Writer journalWriter;
+    private int redundantOpCount;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Creates a cache in given directory, nothing is read nor written until first used
+     *
+     * @param directory directory owned by this cache
+     * @param maxSize   maximum amount of bytes to store
+     */
+    DiskCache(File directory, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.directory = directory;
+        this.tmpDirectory = new File(directory, TMP_DIRECTORY);
+        this.partialDirectory = new File(directory, PARTIAL_DIRECTORY);
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+    }
+
+    /**
+     * @param uri uri of the entry
+     * @return the file holding the entry for given uri or null if there is none
+     */
+    public synchronized File get(String uri) {
+        ensureOpen();
+        String key = keyFor(uri);
+        Long entrySize = entries.get(key);
+        if (entrySize == null) {
+            missCount++;
+            return null;
+        }
+        File file = fileFor(key);
+        if (!file.exists()) {
+            // someone else deleted it, forget about it
+            entries.remove(key);
+            size -= entrySize;
+            appendToJournal(REMOVE, key, true);
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        appendToJournal(READ, key, false);
+        return file;
+    }
+
+    /**
+     * @return true if there is an entry for given uri, it is not considered an access
+     */
+    public synchronized boolean contains(String uri) {
+        ensureOpen();
+        return entries.containsKey(keyFor(uri));
+    }
+
+    /**
+     * @return a new, not yet existent, temporary file to write an entry to before
+     *         {@link #commit}ting it
+     */
+    public File newTempFile() {
+        synchronized (this) {
+            ensureOpen();
+        }
+        return new File(tmpDirectory, System.currentTimeMillis() + "-" + tmpCounter.incrementAndGet());
+    }
+
+    /**
+     * Makes the content of given temporary file the entry for given uri, replacing any previous one.
+     *
+     * @param uri  uri of the entry
+     * @param temp file obtained through {@link #newTempFile()}
+     * @return the file now holding the entry or null if temp was missing, empty or bigger than
+     *         the cache itself, in such case temp is left untouched
+     */
+    public synchronized File commit(String uri, File temp) {
+        ensureOpen();
+        long length = temp.length();
+        if (length <= 0 || length > maxSize) {
+            return null;
+        }
+        String key = keyFor(uri);
+        File file = fileFor(key);
+        Long previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous;
+        }
+        // whatever was said about the previous content does not apply anymore
+        deleteQuietly(metadataFileFor(key));
+        if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+            if (previous != null) {
+                appendToJournal(REMOVE, key, true);
+            }
+            return null;
+        }
+        entries.put(key, length);
+        size += length;
+        appendToJournal(CLEAN, key + " " + length, true);
+        trimToSize(maxSize);
+        return entries.containsKey(key) ? file : null;
+    }
+
+    /**
+     * Discards a temporary file that will not be committed
+     */
+    public void abort(File temp) {
+        if (temp != null && temp.exists() && !temp.delete()) {
+            temp.deleteOnExit();
+        }
+    }
+
+    /**
+     * Removes the entry for given uri if any
+     *
+     * @return true if there was such entry
+     */
+    public synchronized boolean remove(String uri) {
+        ensureOpen();
+        String key = keyFor(uri);
+        Long entrySize = entries.remove(key);
+        if (entrySize == null) {
+            return false;
+        }
+        size -= entrySize;
+        deleteQuietly(fileFor(key));
+        deleteQuietly(metadataFileFor(key));
+        appendToJournal(REMOVE, key, true);
+        return true;
+    }
+
+    /**
+     * @param uri uri of the entry
+     * @return metadata stored for given entry or null if there is none, it is not
+     *         considered an access
+     */
+    public synchronized Properties getMetadata(String uri) {
+        ensureOpen();
+        String key = keyFor(uri);
+        File file = metadataFileFor(key);
+        if (!entries.containsKey(key)) {
+            return null;
+        }
+        return readProperties(file);
+    }
+
+    /**
+     * Stores metadata for an existent entry, replacing any previous one
+     *
+     * @return true if stored
+     */
+    public synchronized boolean putMetadata(String uri, Properties metadata) {
+        ensureOpen();
+        String key = keyFor(uri);
+        if (!entries.containsKey(key)) {
+            return false;
+        }
+        return writeProperties(metadataFileFor(key), metadata);
+    }
+
+    /**
+     * Hands out the file to download given uri into, holding whatever an earlier interrupted
+     * download left so it can be resumed. Nobody else gets it until {@link #releasePartial}d.
+     * It can be {@link #commit}ted like any temporary file.
+     *
+     * @return the file, maybe not existent yet, or null if it is already handed out
+     */
+    public synchronized File acquirePartial(String uri) {
+        ensureOpen();
+        String key = keyFor(uri);
+        if (!partialsInUse.add(key)) {
+            return null;
+        }
+        return new File(partialDirectory, key);
+    }
+
+    /**
+     * Gives back a file obtained through {@link #acquirePartial(String)}
+     *
+     * @param keep true to keep its content, and metadata, for a later attempt
+     */
+    public synchronized void releasePartial(String uri, boolean keep) {
+        String key = keyFor(uri);
+        if (!partialsInUse.remove(key)) {
+            return;
+        }
+        if (!keep) {
+            deleteQuietly(new File(partialDirectory, key));
+            deleteQuietly(new File(partialDirectory, key + METADATA_SUFFIX));
+        } else if (journalWriter != null) {
+            trimPartials();
+        }
+    }
+
+    /**
+     * @return metadata stored for the partial download of given uri or null if there is none
+     */
+    public synchronized Properties getPartialMetadata(String uri) {
+        ensureOpen();
+        return readProperties(new File(partialDirectory, keyFor(uri) + METADATA_SUFFIX));
+    }
+
+    /**
+     * Stores metadata for the partial download of given uri, which must be acquired
+     *
+     * @return true if stored
+     */
+    public synchronized boolean putPartialMetadata(String uri, Properties metadata) {
+        ensureOpen();
+        String key = keyFor(uri);
+        return partialsInUse.contains(key) && writeProperties(new File(partialDirectory, key + METADATA_SUFFIX), metadata);
+    }
+
+    /**
+     * Removes every entry and partial download not in use
+     */
+    public synchronized void clear() {
+        ensureOpen();
+        trimToSize(-1);
+        File[] partials = partialDirectory.listFiles();
+        if (partials != null) {
+            for (File partial : partials) {
+                if (!partialsInUse.contains(partial.getName().replace(METADATA_SUFFIX, ""))) {
+                    deleteQuietly(partial);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until the cache holds at most given amount of bytes
+     */
+    public synchronized void trimToSize(long maxSize) {
+        ensureOpen();
+        boolean evicted = false;
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            String key = eldest.getKey();
+            iterator.remove();
+            size -= eldest.getValue();
+            deleteQuietly(fileFor(key));
+            deleteQuietly(metadataFileFor(key));
+            appendToJournal(REMOVE, key, false);
+            evictionCount++;
+            evicted = true;
+        }
+        if (evicted) {
+            flushJournal();
+        }
+    }
+
+    /**
+     * Changes the maximum amount of bytes to store, evicting right away if needed
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        if (journalWriter != null) {
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * Writes any pending journal line to disk
+     */
+    public synchronized void flush() {
+        if (journalWriter != null) {
+            flushJournal();
+        }
+    }
+
+    /**
+     * Flushes and closes the journal, next operation will open it again
+     */
+    public synchronized void close() {
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            journalWriter.close();
+        } catch (IOException ignored) {
+        }
+        journalWriter = null;
+        entries.clear();
+        size = 0;
+    }
+
+    public synchronized long size() {
+        ensureOpen();
+        return size;
+    }
+
+    public synchronized long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public synchronized int count() {
+        ensureOpen();
+        return entries.size();
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return collision free key for given uri, also used as its file name
+     */
+    static String keyFor(String uri) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(uri.getBytes("UTF-8"));
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key);
+    }
+
+    private File metadataFileFor(String key) {
+        return new File(directory, key + METADATA_SUFFIX);
+    }
+
+    /**
+     * Reads the journal on first use. Must hold this.
+     */
+    private void ensureOpen() {
+        if (journalWriter != null) {
+            return;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + directory);
+        }
+        // whatever was being written when we were killed is garbage now
+        if (tmpDirectory.exists()) {
+            File[] leftovers = tmpDirectory.listFiles();
+            if (leftovers != null) {
+                for (File leftover : leftovers) {
+                    deleteQuietly(leftover);
+                }
+            }
+        } else if (!tmpDirectory.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + tmpDirectory);
+        }
+        // unlike temporary files, partial downloads are meant to survive
+        if (!partialDirectory.exists() && !partialDirectory.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + partialDirectory);
+        }
+
+        entries.clear();
+        size = 0;
+        boolean valid = journalFile.exists() && readJournal();
+        if (!valid) {
+            // no journal or a corrupt one, we can't trust any entry
+            deleteEntries();
+        }
+        if (!valid || redundantOpCount >= COMPACT_THRESHOLD) {
+            rebuildJournal();
+        } else {
+            try {
+                journalWriter = newJournalWriter(true);
+            } catch (FileNotFoundException e) {
+                rebuildJournal();
+            }
+        }
+        if (size > maxSize) {
+            trimToSize(maxSize);
+        }
+        trimPartials();
+    }
+
+    /**
+     * Deletes the oldest partial downloads not in use beyond {@link #MAX_PARTIALS}. Must hold this.
+     */
+    private void trimPartials() {
+        File[] files = partialDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> partials = new ArrayList<File>();
+        for (File file : files) {
+            if (!file.getName().endsWith(METADATA_SUFFIX) && !partialsInUse.contains(file.getName())) {
+                partials.add(file);
+            }
+        }
+        if (partials.size() <= MAX_PARTIALS) {
+            return;
+        }
+        Collections.sort(partials, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long left = lhs.lastModified();
+                long right = rhs.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < partials.size() - MAX_PARTIALS; i++) {
+            File partial = partials.get(i);
+            deleteQuietly(partial);
+            deleteQuietly(new File(partialDirectory, partial.getName() + METADATA_SUFFIX));
+        }
+    }
+
+    /**
+     * @return properties stored in given file or null if missing or unreadable
+     */
+    private static Properties readProperties(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        InputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            Properties properties = new Properties();
+            properties.load(input);
+            return properties;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Replaces given file with given properties, through a temporary file so it is never
+     * left half written. Must hold this.
+     */
+    private boolean writeProperties(File file, Properties properties) {
+        File temp = newTempFile();
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(temp);
+            properties.store(output, null);
+            output.close();
+            output = null;
+            return (!file.exists() || file.delete()) && temp.renameTo(file);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            closeQuietly(output);
+            abort(temp);
+        }
+    }
+
+    /**
+     * @return false if journal is not valid
+     */
+    private boolean readJournal() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())
+                    || !"".equals(reader.readLine())) {
+                return false;
+            }
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    // truncated line, most likely the very last one
+                    continue;
+                }
+                String key = parts[1];
+                if (CLEAN.equals(parts[0]) && parts.length == 3) {
+                    long entrySize = Long.parseLong(parts[2]);
+                    Long previous = entries.put(key, entrySize);
+                    size += entrySize - (previous != null ? previous : 0);
+                } else if (READ.equals(parts[0])) {
+                    entries.get(key);
+                } else if (REMOVE.equals(parts[0])) {
+                    Long previous = entries.remove(key);
+                    if (previous != null) {
+                        size -= previous;
+                    }
+                }
+            }
+            redundantOpCount = lineCount - entries.size();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (NumberFormatException e) {
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a new journal with the bare minimum lines. Must hold this.
+     */
+    private void rebuildJournal() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException ignored) {
+            }
+        }
+        File tmpJournal = new File(directory, JOURNAL_FILE_TMP);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpJournal), "UTF-8"));
+            writer.write(MAGIC + "\n" + VERSION + "\n\n");
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.close();
+            writer = null;
+            if (!tmpJournal.renameTo(journalFile)) {
+                throw new IOException("Unable to rename " + tmpJournal);
+            }
+            redundantOpCount = 0;
+            journalWriter = newJournalWriter(true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write disk cache journal", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private Writer newJournalWriter(boolean append) throws FileNotFoundException {
+        try {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, append), "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Must hold this
+     */
+    private void appendToJournal(String operation, String arguments, boolean flush) {
+        try {
+            journalWriter.write(operation + " " + arguments + "\n");
+            if (flush) {
+                journalWriter.flush();
+            }
+        } catch (IOException ignored) {
+            // worst case the entry is forgotten on next start
+        }
+        if (++redundantOpCount >= COMPACT_THRESHOLD && redundantOpCount >= entries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private void flushJournal() {
+        try {
+            journalWriter.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Deletes every entry file along with the journal, only used when journal can't be trusted
+     */
+    private void deleteEntries() {
+        List<File> toDelete = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    toDelete.add(file);
+                }
+            }
+        }
+        for (File file : toDelete) {
+            deleteQuietly(file);
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.telly.wasp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TimeZone;
+
+/**
+ * Issues GET requests on persistent connections, following redirects explicitly and
+ * revalidating previously downloaded content through its ETag/Last-Modified validators.
+ * <p/>
+ * Connections are kept alive by the platform as long as every body, error and redirect
+ * ones included, is fully read and closed instead of disconnecting, see
+ * {@link Response#discard()}.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+final class HttpDownloader {
+    /**
+     * Amount of maximum allowed redirects
+     * number by:
+     * http://www.google.com/support/forum/p/Webmasters/thread?tid=3760b68fb305088a&hl=en
+     */
+    static final int MAX_REDIRECTS = 5;
+    private static final int CONNECT_TIMEOUT = 15000; // 15 s
+    private static final int READ_TIMEOUT = 20000; // 20 s
+    private static final int HTTP_TEMPORARY_REDIRECT = 307;
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int DISCARD_BUFFER_SIZE = 4096; // 4 KiB
+
+    /**
+     * Metadata keys, as stored next to cached files
+     */
+    static final String META_ETAG = "etag";
+    static final String META_LAST_MODIFIED = "last-modified";
+    static final String META_EXPIRES = "expires";
+
+    static {
+        if (!AppUtils.isFroyoPlus()) {
+            // connection pooling is broken before Froyo, see http://code.google.com/p/android/issues/detail?id=2939
+            System.setProperty("http.keepAlive", "false");
+        }
+    }
+
+    /**
+     * Non instance class
+     */
+    private HttpDownloader() {
+    }
+
+    /**
+     * Requests given url, conditionally if validators of a previously downloaded copy are given
+     *
+     * @param fromUrl  url to get
+     * @param metadata metadata of a copy we already have, may be null
+     * @param token    checked before each request, may be null
+     * @return the response, either with a body or telling our copy is still valid
+     * @throws IOException on any IO issue, too many redirects or an unexpected status
+     */
+    static Response get(String fromUrl, Properties metadata, CancelToken token) throws IOException {
+        return request(fromUrl, metadata, null, 0, token);
+    }
+
+    /**
+     * Requests what is left of a partially downloaded url, only if it did not change since.
+     * Whenever that is not possible the whole content is requested instead.
+     *
+     * @param fromUrl  url to get
+     * @param partial  metadata of the partial download, its validators must be present
+     * @param offset   amount of bytes already downloaded
+     * @param token    checked before each request, may be null
+     * @return a response with the rest of the content, see {@link Response#isPartial()},
+     *         or with the whole content
+     * @throws IOException on any IO issue, too many redirects or an unexpected status
+     */
+    static Response resume(String fromUrl, Properties partial, long offset, CancelToken token) throws IOException {
+        String validator = rangeValidator(partial);
+        if (validator == null || offset <= 0) {
+            return get(fromUrl, null, token);
+        }
+        return request(fromUrl, null, validator, offset, token);
+    }
+
+    /**
+     * @return true if a partial download with given metadata could be resumed
+     */
+    static boolean canResume(Properties partial) {
+        return rangeValidator(partial) != null;
+    }
+
+    private static Response request(String fromUrl, Properties metadata, String rangeValidator, long offset,
+                                    CancelToken token) throws IOException {
+        URL url = new URL(fromUrl);
+        for (int redirect = 0; redirect <= MAX_REDIRECTS; redirect++) {
+            IOUtils.checkCancelled(token);
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (!(connection instanceof HttpURLConnection)) {
+                // file:, jar: and friends
+                connection.connect();
+                return new Response(connection, false, null);
+            }
+            HttpURLConnection http = (HttpURLConnection) connection;
+            // we handle them ourselves, the platform refuses to switch protocols
+            http.setInstanceFollowRedirects(false);
+            // the content length must match what we save
+            http.setRequestProperty("Accept-Encoding", "identity");
+            addValidators(http, metadata);
+            if (rangeValidator != null) {
+                http.setRequestProperty("Range", "bytes=" + offset + "-");
+                // only the rest of the same content is any good
+                http.setRequestProperty("If-Range", rangeValidator);
+            }
+
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_OK) {
+                return new Response(http, false, metadata);
+            }
+            if (status == HttpURLConnection.HTTP_PARTIAL && rangeValidator != null) {
+                String range = http.getHeaderField("Content-Range");
+                if (range != null && range.startsWith("bytes " + offset + "-")) {
+                    Response response = new Response(http, false, null);
+                    response.offset = offset;
+                    return response;
+                }
+            }
+            if (rangeValidator != null
+                    && (status == HttpURLConnection.HTTP_PARTIAL || status == HTTP_RANGE_NOT_SATISFIABLE)) {
+                // not the range we asked for, start over
+                discard(http);
+                return get(url.toString(), metadata, token);
+            }
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && metadata != null) {
+                return new Response(http, true, metadata);
+            }
+            if (isRedirect(status)) {
+                String location = http.getHeaderField("Location");
+                discard(http);
+                if (location == null) {
+                    throw new IOException("Redirect without location for URL " + url);
+                }
+                url = new URL(url, location);
+                continue;
+            }
+            discard(http);
+            throw new IOException("Unexpected status " + status + " for URL " + url);
+        }
+        throw new IOException("Too many redirects for " + fromUrl);
+    }
+
+    /**
+     * @param metadata metadata stored along a downloaded copy, may be null
+     * @return true if that copy can be used without asking the server, copies without
+     *         any freshness information never expire
+     */
+    static boolean isFresh(Properties metadata) {
+        if (metadata == null) {
+            return true;
+        }
+        String expires = metadata.getProperty(META_EXPIRES);
+        if (expires == null) {
+            return true;
+        }
+        try {
+            return System.currentTimeMillis() < Long.parseLong(expires);
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static void addValidators(HttpURLConnection http, Properties metadata) {
+        if (metadata == null) {
+            return;
+        }
+        String etag = metadata.getProperty(META_ETAG);
+        if (etag != null) {
+            http.setRequestProperty("If-None-Match", etag);
+        }
+        String lastModified = metadata.getProperty(META_LAST_MODIFIED);
+        if (lastModified != null) {
+            try {
+                http.setIfModifiedSince(Long.parseLong(lastModified));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return value for an If-Range header or null if there is no usable validator,
+     *         weak ETags can not be used
+     */
+    private static String rangeValidator(Properties partial) {
+        if (partial == null) {
+            return null;
+        }
+        String etag = partial.getProperty(META_ETAG);
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        String lastModified = partial.getProperty(META_LAST_MODIFIED);
+        if (lastModified != null) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+                format.setTimeZone(TimeZone.getTimeZone("GMT"));
+                return format.format(new Date(Long.parseLong(lastModified)));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private static boolean isRedirect(int status) {
+        return status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_MOVED_TEMP
+                || status == HttpURLConnection.HTTP_SEE_OTHER || status == HTTP_TEMPORARY_REDIRECT
+                || status == HTTP_PERMANENT_REDIRECT;
+    }
+
+    /**
+     * Reads and closes whatever body the connection has so it can be reused
+     */
+    private static void discard(HttpURLConnection http) {
+        InputStream input = http.getErrorStream();
+        try {
+            if (input == null) {
+                input = http.getInputStream();
+            }
+            byte[] buffer = new byte[DISCARD_BUFFER_SIZE];
+            while (input.read(buffer) > 0) {
+                // nothing to do
+            }
+        } catch (IOException ignored) {
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return millis since epoch the response stops being fresh or -1 if it does not say
+     */
+    static long expiresAt(String cacheControl, long expires, long date, long now) {
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return now;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        if (expires > 0) {
+            // relative to the server clock
+            return date > 0 ? now + (expires - date) : expires;
+        }
+        return -1;
+    }
+
+    /**
+     * Result of {@link HttpDownloader#get}
+     */
+    static class Response {
+        private final URLConnection connection;
+        private final boolean notModified;
+        private final Properties previous;
+        private long offset;
+
+        private Response(URLConnection connection, boolean notModified, Properties previous) {
+            this.connection = connection;
+            this.notModified = notModified;
+            this.previous = previous;
+        }
+
+        /**
+         * @return true if the copy we already had is still valid, there is no body then
+         */
+        boolean isNotModified() {
+            return notModified;
+        }
+
+        /**
+         * @return true if the body is the rest of a partial download, starting at {@link #getOffset()}
+         */
+        boolean isPartial() {
+            return offset > 0;
+        }
+
+        /**
+         * @return position of the body in the whole content, 0 unless {@link #isPartial()}
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        InputStream getBody() throws IOException {
+            return connection.getInputStream();
+        }
+
+        /**
+         * @return body length or -1 if unknown
+         */
+        int getContentLength() {
+            return connection.getContentLength();
+        }
+
+        URLConnection getConnection() {
+            return connection;
+        }
+
+        /**
+         * @return validators and freshness of this response to store along the content,
+         *         those not sent again on a 304 are kept from the previous copy
+         */
+        Properties getMetadata() {
+            Properties metadata = new Properties();
+            if (notModified && previous != null) {
+                metadata.putAll(previous);
+            }
+            if (!(connection instanceof HttpURLConnection)) {
+                return metadata;
+            }
+            String etag = connection.getHeaderField("ETag");
+            if (etag != null) {
+                metadata.setProperty(META_ETAG, etag);
+            }
+            long lastModified = connection.getLastModified();
+            if (lastModified > 0) {
+                metadata.setProperty(META_LAST_MODIFIED, String.valueOf(lastModified));
+            }
+            long expires = expiresAt(connection.getHeaderField("Cache-Control"), connection.getExpiration(),
+                    connection.getDate(), System.currentTimeMillis());
+            if (expires >= 0) {
+                metadata.setProperty(META_EXPIRES, String.valueOf(expires));
+            } else {
+                metadata.remove(META_EXPIRES);
+            }
+            return metadata;
+        }
+
+        /**
+         * Reads and closes the body so the connection can be reused
+         */
+        void discard() {
+            if (connection instanceof HttpURLConnection) {
+                HttpDownloader.discard((HttpURLConnection) connection);
+            }
+        }
+    }
+}
@@ -7,8 +7,8 @@ import android.content.pm.PackageManager;
 import android.util.Log;
 
 import java.io.*;
-import java.net.URL;
 import java.net.URLConnection;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * IO useful methods
@@ -29,20 +29,35 @@ public class IOUtils {
      * Read it's name
      */
     private static final int DEFAULT_BUFFER_SIZE = 4096; // 4 KiB
+    private static final String TEMP_SUFFIX = ".part";
+    private static final AtomicLong tempCounter = new AtomicLong();
 
     /**
      * Copies an input stream to an output stream
      *
      * @param input  The source
      * @param output The target
+     * @param token  checked between chunks, may be null
+     * @return amount of bytes copied
      * @throws java.io.IOException From http://stackoverflow.com/questions/4064211
+     * @throws InterruptedIOException if given token got cancelled meanwhile
      */
-    private static void copy(InputStream input, OutputStream output)
+    static long copy(InputStream input, OutputStream output, CancelToken token)
             throws IOException {
         byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        long count = 0;
         int n;
         while ((n = input.read(buffer)) > 0) {// > 0 due zero sized streams
+            checkCancelled(token);
             output.write(buffer, 0, n);
+            count += n;
+        }
+        return count;
+    }
+
+    static void checkCancelled(CancelToken token) throws InterruptedIOException {
+        if (token != null && token.isCancelled()) {
+            throw new InterruptedIOException("Cancelled");
         }
     }
 
@@ -61,32 +76,86 @@ public class IOUtils {
     }
 
     /**
-     * Download a file at <code>fromUrl</code> to a file specified by <code>toFile</code>
+     * Download a file at <code>fromUrl</code> to a file specified by <code>toFile</code>.
+     * Content is written to a temporary file first, toFile is only replaced once it is
+     * fully downloaded.
      *
      * @param fromUrl An url pointing to a file to download
      * @param toFile  File to save to, if existent will be overwrite
      * @throws java.io.IOException If fromUrl is invalid or there is any IO issue.
      */
     public static void downloadFile(Context context, String fromUrl, File toFile) throws IOException {
-        downloadFileHandleRedirect(context, fromUrl, toFile, 0);
+        downloadFile(context, fromUrl, toFile, null);
     }
 
     /**
-     * Amount of maximum allowed redirects
-     * number by:
-     * http://www.google.com/support/forum/p/Webmasters/thread?tid=3760b68fb305088a&hl=en
+     * Same as {@link #downloadFile(Context, String, java.io.File)} but gives up as soon as
+     * given token is cancelled, leaving <code>toFile</code> incomplete
+     *
+     * @param token checked before connecting and between chunks, may be null
+     * @throws InterruptedIOException if the download was cancelled
      */
-    private static final int MAX_REDIRECTS = 5;
+    public static void downloadFile(Context context, String fromUrl, File toFile, CancelToken token) throws IOException {
+        URLConnection urlConnection = openConnection(context, fromUrl, token);
+        InputStream input = urlConnection.getInputStream();
+        File temp = tempFileFor(toFile);
+        boolean done = false;
+        try {
+            OutputStream output = new FileOutputStream(temp);
+            try {
+                IOUtils.copy(input, output, token);
+            } finally {
+                output.close();
+            }
+            commitTempFile(temp, toFile);
+            done = true;
+        } finally {
+            input.close();
+            if (!done) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * @return a file next to given one to write to before {@link #commitTempFile}ting it,
+     *         a different one on every call so concurrent writes of the same file never share it
+     */
+    static File tempFileFor(File file) {
+        return new File(file.getParentFile(), file.getName() + "." + tempCounter.incrementAndGet() + TEMP_SUFFIX);
+    }
 
     /**
-     * Internal version of {@link #downloadFile(Context, String, java.io.File)}
+     * Atomically replaces given file with the temporary one
      *
-     * @param fromUrl  the url to download from
-     * @param toFile   the file to download to
-     * @param redirect true if it should accept redirects
-     * @throws java.io.IOException
+     * @throws IOException if it could not be replaced, temp is left untouched
      */
-    private static void downloadFileHandleRedirect(Context context, String fromUrl, File toFile, int redirect) throws IOException {
+    static void commitTempFile(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            // some file systems can't rename over an existing file
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Connects to given url following redirects, ready to read its content
+     *
+     * @param fromUrl An url pointing to a file to download
+     * @param token   checked before connecting, may be null
+     * @return a connection whose input stream has the content of fromUrl
+     * @throws java.io.IOException If fromUrl is invalid or there is any IO issue.
+     */
+    public static URLConnection openConnection(Context context, String fromUrl, CancelToken token) throws IOException {
+        checkInternetPermission(context);
+        return HttpDownloader.get(fromUrl, null, token).getConnection();
+    }
+
+    /**
+     * Makes sure the app can go online, only checked once
+     */
+    static void checkInternetPermission(Context context) {
         if (context == null) {
             throw new RuntimeException("Context shall not be null");
         }
@@ -112,27 +181,5 @@ public class IOUtils {
             } catch (PackageManager.NameNotFoundException ignored) {
             }
         }
-
-        if (redirect > MAX_REDIRECTS) {
-            throw new IOException("Too many redirects for " + fromUrl);
-        }
-
-        URL url = new URL(fromUrl);
-        URLConnection urlConnection = url.openConnection();
-        urlConnection.connect();
-        int contentLength = urlConnection.getContentLength();
-        if (contentLength == -1) {
-            fromUrl = urlConnection.getHeaderField("Location");
-            if (fromUrl == null) { /* I'd love to leave it as "Que Dios se apiade de nosotros" XD */
-                throw new IOException("No content or redirect found for URL " + url + " with " + redirect + " redirects.");
-            }
-            downloadFileHandleRedirect(context, fromUrl, toFile, redirect + 1);
-            return;
-        }
-        InputStream input = urlConnection.getInputStream();
-        OutputStream output = new FileOutputStream(toFile);
-        IOUtils.copy(input, output);
-        output.close();
-        input.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package com.telly.wasp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations with power of two buckets in microseconds: bucket 0
+ * counts durations under 1 us, bucket i those in [2^(i-1), 2^i) us, the last one anything
+ * longer. Recording is a couple of atomic increments, cheap enough to leave on.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public final class LatencyHistogram {
+    /**
+     * Amount of buckets, the last one starts at about 18 minutes
+     */
+    public static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos duration to record, negative ones count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketFor(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    static int bucketFor(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return exclusive upper bound of given bucket in microseconds, Long.MAX_VALUE for the last one
+     */
+    public static long bucketUpperBoundMicros(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return amount of durations recorded into given bucket
+     */
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    public long getAverageMillis() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / recorded);
+    }
+
+    /**
+     * @param percentile between 0 and 1, e.g. 0.99
+     * @return upper bound of the bucket the given percentile falls into, in milliseconds,
+     *         so it is overestimated by up to twice. 0 if nothing was recorded.
+     */
+    public long getPercentileMillis(double percentile) {
+        long recorded = count.get();
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(recorded * Math.max(0, Math.min(1, percentile)));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(TimeUnit.MICROSECONDS.toMillis(bucketUpperBoundMicros(i)), getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyHistogram[count=%d,avg=%dms,p50=%dms,p99=%dms,max=%dms]",
+                getCount(), getAverageMillis(), getPercentileMillis(0.5), getPercentileMillis(0.99), getMaxMillis());
+    }
+}
@@ -0,0 +1,238 @@
+package com.telly.wasp;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle to the result of an asynchronous load. It can be waited for, with or without a
+ * timeout, listened to, cancelled and combined with others through {@link #allOf(List)}.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public class LoadFuture<V> implements Future<V> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    /**
+     * Guarded by this
+     */
+    private List<Runnable> pending = new ArrayList<Runnable>();
+    private volatile V value;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+
+    /**
+     * Notified once a future is done, either loaded, failed or cancelled
+     */
+    public static interface Listener<V> {
+        void onDone(LoadFuture<V> future);
+    }
+
+    /**
+     * Completes this future with given value
+     *
+     * @return false if it was already done
+     */
+    public boolean set(V value) {
+        return complete(value, null, false);
+    }
+
+    /**
+     * Completes this future with given failure
+     *
+     * @return false if it was already done
+     */
+    public boolean fail(Throwable failure) {
+        return complete(null, failure, false);
+    }
+
+    /**
+     * Cancels the load unless already done, whatever is still waiting for it is notified
+     *
+     * @param mayInterruptIfRunning ignored, running loads find out by themselves
+     * @return false if it was already done
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(null, null, true)) {
+            return false;
+        }
+        onCancelled();
+        return true;
+    }
+
+    /**
+     * Called once this future gets cancelled, to stop the load behind it
+     */
+    protected void onCancelled() {
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * @return true if done with a value rather than failed or cancelled
+     */
+    public boolean isSuccessful() {
+        return isDone() && !cancelled && failure == null;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    /**
+     * @return the value if successfully done, null otherwise. Never blocks.
+     */
+    public V getNow() {
+        return isSuccessful() ? value : null;
+    }
+
+    /**
+     * @return why it failed or null if it did not
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Notifies given listener once done, right away if it already is
+     *
+     * @param listener listener to notify
+     * @param handler  handler to notify through, e.g. one created on the UI thread, or null
+     *                 to notify from whatever thread completes this future
+     */
+    public void addListener(Listener<V> listener, Handler handler) {
+        Runnable notification = new Notification<V>(this, listener, handler);
+        synchronized (this) {
+            if (pending != null) {
+                pending.add(notification);
+                return;
+            }
+        }
+        notification.run();
+    }
+
+    private boolean complete(V value, Throwable failure, boolean cancelled) {
+        List<Runnable> notifications;
+        synchronized (this) {
+            if (pending == null) {
+                return false;
+            }
+            this.value = value;
+            this.failure = failure;
+            this.cancelled = cancelled;
+            notifications = pending;
+            pending = null;
+        }
+        done.countDown();
+        for (Runnable notification : notifications) {
+            notification.run();
+        }
+        return true;
+    }
+
+    private V result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return value;
+    }
+
+    /**
+     * Combines many futures into one done once all of them are. Its value holds the value
+     * of each one in the same order, null for those failed or cancelled, so it never fails.
+     * Cancelling it cancels those not done yet.
+     *
+     * @param futures futures to wait for
+     * @return a future for all of them
+     */
+    public static <V> LoadFuture<List<V>> allOf(final List<? extends LoadFuture<V>> futures) {
+        final List<LoadFuture<V>> members = new ArrayList<LoadFuture<V>>(futures);
+        final LoadFuture<List<V>> all = new LoadFuture<List<V>>() {
+            @Override
+            protected void onCancelled() {
+                for (LoadFuture<V> member : members) {
+                    member.cancel(false);
+                }
+            }
+        };
+        final AtomicInteger remaining = new AtomicInteger(members.size());
+        if (members.isEmpty()) {
+            all.set(Collections.<V>emptyList());
+            return all;
+        }
+        Listener<V> listener = new Listener<V>() {
+            @Override
+            public void onDone(LoadFuture<V> future) {
+                if (remaining.decrementAndGet() > 0) {
+                    return;
+                }
+                List<V> values = new ArrayList<V>(members.size());
+                for (LoadFuture<V> member : members) {
+                    values.add(member.getNow());
+                }
+                all.set(values);
+            }
+        };
+        for (LoadFuture<V> member : members) {
+            member.addListener(listener, null);
+        }
+        return all;
+    }
+
+    private static class Notification<V> implements Runnable {
+        private final LoadFuture<V> future;
+        private final Listener<V> listener;
+        private final Handler handler;
+
+        private Notification(LoadFuture<V> future, Listener<V> listener, Handler handler) {
+            this.future = future;
+            this.listener = listener;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            if (handler == null) {
+                listener.onDone(future);
+                return;
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onDone(future);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.telly.wasp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where loads spend their time and what they cost, see {@link BitmapHelper#getLoadMetrics()}.
+ * Everything is recorded with atomic counters, cheap enough to leave on in production.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public class LoadMetrics {
+    /**
+     * Phases of a load not served from memory
+     */
+    public enum Phase {
+        /**
+         * waiting for a free loading thread
+         */
+        QUEUE_WAIT,
+        /**
+         * looking up, revalidating bookkeeping and saving to the disk cache
+         */
+        DISK,
+        /**
+         * connecting to the server and downloading whatever the decoder did not read
+         */
+        NETWORK,
+        /**
+         * decoding, when decoding while downloading it includes waiting for the bytes
+         */
+        DECODE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong decodeFailures = new AtomicLong();
+    private final AtomicLong outOfMemoryErrors = new AtomicLong();
+    /**
+     * From a bitmap being handed to the UI thread until shown, see {@link DeliveryQueue}
+     */
+    private final LatencyHistogram deliveryLag = new LatencyHistogram();
+    private final AtomicLong droppedDeliveries = new AtomicLong();
+    private final AtomicLong deliveryBatches = new AtomicLong();
+    private volatile Listener listener;
+
+    /**
+     * Notified about every load not served from memory once it is done, from the loading
+     * thread that did it so it must return quickly
+     */
+    public static interface Listener {
+        void onLoadMeasured(Sample sample);
+    }
+
+    LoadMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param listener listener to notify or null to stop notifying
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    /**
+     * @return amount of bytes received from the network, including those of prefetches
+     */
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    /**
+     * @return amount of downloaded or cached files that could not be decoded, including
+     *         those that did not fit in memory
+     */
+    public long getDecodeFailureCount() {
+        return decodeFailures.get();
+    }
+
+    /**
+     * @return amount of bitmaps given up because they did not fit in memory, the error
+     *         being swallowed
+     */
+    public long getOutOfMemoryCount() {
+        return outOfMemoryErrors.get();
+    }
+
+    /**
+     * @return time from a loaded bitmap being queued for its view, or callback, until it is
+     *         handed to it on the UI thread
+     */
+    public LatencyHistogram getDeliveryLag() {
+        return deliveryLag;
+    }
+
+    /**
+     * @return amount of loaded bitmaps not delivered because their view, or callback,
+     *         wanted another URL by then
+     */
+    public long getDroppedDeliveryCount() {
+        return droppedDeliveries.get();
+    }
+
+    /**
+     * @return amount of batches bitmaps were delivered to the UI thread in
+     */
+    public long getDeliveryBatchCount() {
+        return deliveryBatches.get();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        bytesDownloaded.set(0);
+        decodeFailures.set(0);
+        outOfMemoryErrors.set(0);
+        deliveryLag.reset();
+        droppedDeliveries.set(0);
+        deliveryBatches.set(0);
+    }
+
+    void downloaded(long bytes) {
+        bytesDownloaded.addAndGet(bytes);
+    }
+
+    void decodeFailed() {
+        decodeFailures.incrementAndGet();
+    }
+
+    void outOfMemory() {
+        outOfMemoryErrors.incrementAndGet();
+    }
+
+    void delivered(long lagNanos) {
+        deliveryLag.record(lagNanos);
+    }
+
+    void deliveryDropped() {
+        droppedDeliveries.incrementAndGet();
+    }
+
+    void deliveryBatch() {
+        deliveryBatches.incrementAndGet();
+    }
+
+    /**
+     * Records a finished load into the histograms of the phases it went through and hands
+     * it to the listener
+     */
+    void record(Sample sample) {
+        for (int i = 0; i < histograms.length; i++) {
+            if (sample.ran[i]) {
+                histograms[i].record(sample.phaseNanos[i]);
+            }
+        }
+        Listener current = listener;
+        if (current != null) {
+            current.onLoadMeasured(sample);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("LoadMetrics[");
+        for (Phase phase : PHASES) {
+            builder.append(phase).append('=').append(getHistogram(phase)).append(',');
+        }
+        return builder.append("bytesDownloaded=").append(getBytesDownloaded())
+                .append(",decodeFailures=").append(getDecodeFailureCount())
+                .append(",outOfMemory=").append(getOutOfMemoryCount())
+                .append(",deliveryLag=").append(deliveryLag)
+                .append(",droppedDeliveries=").append(getDroppedDeliveryCount())
+                .append(']').toString();
+    }
+
+    /**
+     * Measurements of a single load, accumulated by the loading thread
+     */
+    public static final class Sample {
+        private final String uri;
+        private final long[] phaseNanos = new long[PHASES.length];
+        private final boolean[] ran = new boolean[PHASES.length];
+        private long bytesDownloaded;
+        private boolean successful;
+
+        Sample(String uri) {
+            this.uri = uri;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @return nanoseconds spent in given phase, 0 if it did not go through it
+         */
+        public long getNanos(Phase phase) {
+            return phaseNanos[phase.ordinal()];
+        }
+
+        /**
+         * @return true if this load went through given phase, e.g. loads from disk never
+         *         reach {@link Phase#NETWORK}
+         */
+        public boolean ran(Phase phase) {
+            return ran[phase.ordinal()];
+        }
+
+        /**
+         * @return amount of bytes received from the network for this load
+         */
+        public long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        /**
+         * @return true if a bitmap was loaded
+         */
+        public boolean isSuccessful() {
+            return successful;
+        }
+
+        /**
+         * Adds the time elapsed since given nanoTime to given phase
+         */
+        void addSince(Phase phase, long startNanos) {
+            phaseNanos[phase.ordinal()] += System.nanoTime() - startNanos;
+            ran[phase.ordinal()] = true;
+        }
+
+        void downloaded(long bytes) {
+            bytesDownloaded += bytes;
+        }
+
+        void setSuccessful(boolean successful) {
+            this.successful = successful;
+        }
+    }
+}
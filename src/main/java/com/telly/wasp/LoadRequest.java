@@ -0,0 +1,56 @@
+package com.telly.wasp;
+
+import android.content.Context;
+
+/**
+ * What a {@link LoadStage} is asked to load
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public class LoadRequest implements CancelToken {
+    private final Context context;
+    private final String uri;
+    private final int targetWidth;
+    private final int targetHeight;
+    private final CancelToken token;
+
+    LoadRequest(Context context, String uri, int targetWidth, int targetHeight, CancelToken token) {
+        this.context = context;
+        this.uri = uri;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.token = token;
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return width the bitmap will be shown at or 0 for full size, see
+     *         {@link BitmapUtils#calculateInSampleSize(int, int, int, int)}
+     */
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    /**
+     * @return height the bitmap will be shown at or 0 for full size
+     */
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * @return true if nobody needs this bitmap anymore
+     */
+    @Override
+    public boolean isCancelled() {
+        return token != null && token.isCancelled();
+    }
+}
@@ -0,0 +1,220 @@
+package com.telly.wasp;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs load tasks on a bounded amount of threads. Pending tasks are ordered by priority
+ * and, within the same priority, newest first: the most recently requested images are
+ * most likely the ones on screen.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+class LoadScheduler {
+    private static final int DEFAULT_PARALLELISM = Math.min(4, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    LoadScheduler() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param parallelism maximum amount of tasks running at the same time
+     */
+    LoadScheduler(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism <= 0");
+        }
+        executor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new LoaderThreadFactory());
+    }
+
+    /**
+     * Schedules given task, which must not be already scheduled
+     *
+     * @throws RejectedExecutionException if this scheduler was shut down
+     */
+    void execute(Task task) {
+        task.scheduler = this;
+        task.sequence = sequence.incrementAndGet();
+        task.scheduledAt = System.nanoTime();
+        scheduledCount.incrementAndGet();
+        executor.execute(task);
+        updateMaxQueueDepth();
+    }
+
+    /**
+     * Moves a pending task to the front of those with the same priority, optionally
+     * raising its priority
+     *
+     * @return true if the task was still pending, false if it already started
+     */
+    boolean reschedule(Task task, int priority) {
+        if (!executor.getQueue().remove(task)) {
+            return false;
+        }
+        task.priority = Math.max(task.priority, priority);
+        task.sequence = sequence.incrementAndGet();
+        executor.execute(task);
+        return true;
+    }
+
+    /**
+     * Removes a task not yet started
+     *
+     * @return true if the task was pending and will not run
+     */
+    boolean remove(Task task) {
+        return executor.getQueue().remove(task);
+    }
+
+    /**
+     * Changes the maximum amount of tasks running at the same time
+     */
+    void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism <= 0");
+        }
+        synchronized (executor) {
+            // core size must never exceed the maximum one
+            if (parallelism > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(parallelism);
+                executor.setCorePoolSize(parallelism);
+            } else {
+                executor.setCorePoolSize(parallelism);
+                executor.setMaximumPoolSize(parallelism);
+            }
+        }
+    }
+
+    int getParallelism() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return amount of tasks waiting to run
+     */
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return highest amount of tasks seen waiting to run at once
+     */
+    int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    long getScheduledCount() {
+        return scheduledCount.get();
+    }
+
+    long getStartedCount() {
+        return startedCount.get();
+    }
+
+    /**
+     * @return average time tasks waited before running, in milliseconds
+     */
+    long getAverageWaitMillis() {
+        long started = startedCount.get();
+        return started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / started);
+    }
+
+    /**
+     * @return longest time a task waited before running, in milliseconds
+     */
+    long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    private void updateMaxQueueDepth() {
+        int depth = executor.getQueue().size();
+        int max;
+        while (depth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, depth)) {
+                break;
+            }
+        }
+    }
+
+    private void taskStarted(Task task) {
+        long waited = System.nanoTime() - task.scheduledAt;
+        startedCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        long max;
+        while (waited > (max = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(max, waited)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * A prioritized unit of work, higher priorities run first
+     */
+    abstract static class Task implements Runnable, Comparable<Task> {
+        private volatile LoadScheduler scheduler;
+        private volatile int priority;
+        private volatile long sequence;
+        private volatile long scheduledAt;
+
+        protected Task(int priority) {
+            this.priority = priority;
+        }
+
+        int getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return nanoTime this task was scheduled at
+         */
+        long getScheduledAt() {
+            return scheduledAt;
+        }
+
+        @Override
+        public final void run() {
+            scheduler.taskStarted(this);
+            execute();
+        }
+
+        protected abstract void execute();
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            // newest first
+            return sequence > other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private static class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "wasp-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.telly.wasp;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+
+/**
+ * A source of bitmaps plugged into the loading pipeline through
+ * {@link BitmapHelper#addLoadStage(LoadStage)}. Stages are asked in order after the in
+ * memory cache and before the disk cache and the network, the first bitmap returned wins.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public interface LoadStage {
+    /**
+     * Tries to get the bitmap for given request, it runs on a loading thread so it may
+     * block. Long running stages should give up once {@link LoadRequest#isCancelled()}.
+     *
+     * @param request what is being loaded
+     * @return the bitmap or null to let the next stage try
+     * @throws IOException if the load must fail right away
+     */
+    Bitmap load(LoadRequest request) throws IOException;
+}
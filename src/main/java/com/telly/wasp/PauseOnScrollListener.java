@@ -0,0 +1,59 @@
+package com.telly.wasp;
+
+import android.widget.AbsListView;
+
+/**
+ * Pauses bitmap decoding while a list is being flung and resumes it once it settles,
+ * see {@link BitmapHelper#pauseLoads(boolean)}
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public class PauseOnScrollListener implements AbsListView.OnScrollListener {
+    private final BitmapHelper helper;
+    private final boolean pauseOnTouchScroll;
+    private final boolean keepDownloading;
+    private final AbsListView.OnScrollListener delegate;
+
+    /**
+     * @param pauseOnTouchScroll true to pause while the user drags the list too, not only on flings
+     * @param keepDownloading    true to keep downloading while paused
+     * @param delegate           listener to forward every event to, may be null
+     */
+    public PauseOnScrollListener(boolean pauseOnTouchScroll, boolean keepDownloading,
+                                 AbsListView.OnScrollListener delegate) {
+        this.helper = BitmapHelper.getInstance();
+        this.pauseOnTouchScroll = pauseOnTouchScroll;
+        this.keepDownloading = keepDownloading;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        switch (scrollState) {
+            case SCROLL_STATE_FLING:
+                helper.pauseLoads(keepDownloading);
+                break;
+            case SCROLL_STATE_TOUCH_SCROLL:
+                if (pauseOnTouchScroll) {
+                    helper.pauseLoads(keepDownloading);
+                } else {
+                    helper.resumeLoads();
+                }
+                break;
+            default:
+                helper.resumeLoads();
+                break;
+        }
+        if (delegate != null) {
+            delegate.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (delegate != null) {
+            delegate.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+    }
+}
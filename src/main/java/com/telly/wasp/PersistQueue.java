@@ -0,0 +1,267 @@
+package com.telly.wasp;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves bitmaps to the disk cache in the background, one at a time on a single thread
+ * started on demand. Saving a uri again before it was written replaces the pending write,
+ * and once the pending bitmaps add up to more than the maximum the oldest are given up.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+class PersistQueue {
+    private static final String TAG = "PersistQueue";
+    static final long DEFAULT_MAX_PENDING_BYTES = 8 * 1048576; // 8 MiB
+
+    private final DiskCache disk;
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            boolean drained = false;
+            try {
+                drain(true);
+                drained = true;
+            } finally {
+                if (!drained) {
+                    synchronized (PersistQueue.this) {
+                        // a write blew up, the next enqueue starts another worker
+                        workerRunning = false;
+                    }
+                }
+            }
+        }
+    };
+    /**
+     * Writes not started yet by uri, oldest first. Guarded by this, as everything below.
+     */
+    private final LinkedHashMap<String, Write> pending = new LinkedHashMap<String, Write>();
+    private long maxPendingBytes;
+    private long pendingBytes;
+    /**
+     * writes started but not finished yet
+     */
+    private int writing;
+    private boolean workerRunning;
+
+    private long writtenCount;
+    private long coalescedCount;
+    private long droppedCount;
+
+    /**
+     * @param disk            where to save bitmaps to
+     * @param maxPendingBytes maximum size of the bitmaps waiting to be written
+     */
+    PersistQueue(DiskCache disk, long maxPendingBytes) {
+        this.disk = disk;
+        setMaxPendingBytes(maxPendingBytes);
+    }
+
+    /**
+     * Queues given bitmap to be saved as the entry of given uri, it must not be modified nor
+     * recycled until then
+     *
+     * @param bytes   size of the bitmap
+     * @param format  format to encode it in
+     * @param quality see {@link Bitmap#compress}
+     */
+    void enqueue(String uri, Bitmap bitmap, long bytes, Bitmap.CompressFormat format, int quality) {
+        synchronized (this) {
+            Write previous = pending.remove(uri);
+            if (previous != null) {
+                pendingBytes -= previous.bytes;
+                coalescedCount++;
+            }
+            pending.put(uri, new Write(uri, bitmap, bytes, format, quality));
+            pendingBytes += bytes;
+            // the newest write is kept no matter its size
+            dropOldest(maxPendingBytes, 1);
+            if (workerRunning) {
+                return;
+            }
+            workerRunning = true;
+        }
+        Thread thread = new Thread(worker, "wasp-persist");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    synchronized void setMaxPendingBytes(long maxPendingBytes) {
+        if (maxPendingBytes <= 0) {
+            throw new IllegalArgumentException("maxPendingBytes <= 0");
+        }
+        this.maxPendingBytes = maxPendingBytes;
+        dropOldest(maxPendingBytes, 1);
+    }
+
+    /**
+     * Gives up the oldest pending writes until the bitmaps still waiting fit in given size,
+     * e.g. to release memory. The maximum is left untouched.
+     *
+     * @return amount of bytes given up
+     */
+    synchronized long trimToSize(long maxSize) {
+        long released = dropOldest(maxSize, 0);
+        notifyAll();
+        return released;
+    }
+
+    /**
+     * Writes whatever is pending on the calling thread, then waits for writes in progress
+     */
+    void flush() throws InterruptedException {
+        drain(false);
+        synchronized (this) {
+            while (writing > 0) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Waits for everything queued to be written
+     *
+     * @return true if all was written, false if it timed out
+     */
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (!pending.isEmpty() || writing > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives up every pending write, e.g. because the disk cache was cleared
+     */
+    synchronized void clear() {
+        droppedCount += pending.size();
+        pending.clear();
+        pendingBytes = 0;
+        notifyAll();
+    }
+
+    synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    synchronized long writtenCount() {
+        return writtenCount;
+    }
+
+    synchronized long coalescedCount() {
+        return coalescedCount;
+    }
+
+    synchronized long droppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Encodes given bitmap into the disk cache
+     *
+     * @return true if saved
+     */
+    boolean write(String uri, Bitmap bitmap, Bitmap.CompressFormat format, int quality) {
+        File temp = disk.newTempFile();
+        try {
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(temp));
+            boolean compressed;
+            try {
+                compressed = bitmap.compress(format, quality, output);
+            } finally {
+                output.close();
+            }
+            return compressed && disk.commit(uri, temp) != null;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save " + uri, e);
+        } catch (IllegalStateException e) {
+            // recycled meanwhile
+            Log.w(TAG, "Unable to save " + uri, e);
+        } finally {
+            disk.abort(temp);
+        }
+        return false;
+    }
+
+    private void drain(boolean worker) {
+        for (; ; ) {
+            Write next;
+            synchronized (this) {
+                Iterator<Write> iterator = pending.values().iterator();
+                if (!iterator.hasNext()) {
+                    if (worker) {
+                        workerRunning = false;
+                    }
+                    notifyAll();
+                    return;
+                }
+                next = iterator.next();
+                iterator.remove();
+                pendingBytes -= next.bytes;
+                writing++;
+            }
+            boolean written = false;
+            try {
+                written = write(next.uri, next.bitmap, next.format, next.quality);
+            } finally {
+                synchronized (this) {
+                    writing--;
+                    if (written) {
+                        writtenCount++;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param keep amount of the newest writes to keep whatever their size
+     * @return amount of bytes given up
+     */
+    private long dropOldest(long maxSize, int keep) {
+        long before = pendingBytes;
+        for (Iterator<Write> iterator = pending.values().iterator();
+             pendingBytes > maxSize && pending.size() > keep; ) {
+            Write eldest = iterator.next();
+            iterator.remove();
+            pendingBytes -= eldest.bytes;
+            droppedCount++;
+        }
+        return before - pendingBytes;
+    }
+
+    private static class Write {
+        private final String uri;
+        private final Bitmap bitmap;
+        private final long bytes;
+        private final Bitmap.CompressFormat format;
+        private final int quality;
+
+        private Write(String uri, Bitmap bitmap, long bytes, Bitmap.CompressFormat format, int quality) {
+            this.uri = uri;
+            this.bitmap = bitmap;
+            this.bytes = bytes;
+            this.format = format;
+            this.quality = quality;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.telly.wasp;
+
+import android.os.Handler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle to a group of URLs being downloaded to the disk cache ahead of time, see
+ * {@link BitmapHelper#prefetchBitmaps}. It is done once every URL is either on disk or
+ * failed, its value being the amount of URLs on disk. Cancelling it stops every pending
+ * download of the group.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public class Prefetch extends LoadFuture<Integer> {
+    private final int total;
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile ProgressListener listener;
+    private volatile Handler handler;
+
+    /**
+     * Notified every time one more URL of the group is done
+     */
+    public static interface ProgressListener {
+        /**
+         * @param prefetch the group
+         * @param done     amount of URLs either on disk or failed so far
+         * @param total    amount of URLs in the group
+         */
+        void onProgress(Prefetch prefetch, int done, int total);
+    }
+
+    Prefetch(int total) {
+        this.total = total;
+        if (total == 0) {
+            set(0);
+        }
+    }
+
+    /**
+     * @param listener listener to notify or null to stop notifying
+     * @param handler  handler to notify through, e.g. one created on the UI thread, or null
+     *                 to notify from the loading threads
+     */
+    public void setProgressListener(ProgressListener listener, Handler handler) {
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return amount of URLs on disk so far, already there included
+     */
+    public int getSucceededCount() {
+        return succeeded.get();
+    }
+
+    public int getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return amount of URLs either on disk or failed so far
+     */
+    public int getDoneCount() {
+        return succeeded.get() + failed.get();
+    }
+
+    /**
+     * Records one more URL done, completing this group once all are
+     */
+    void itemDone(boolean success) {
+        if (success) {
+            succeeded.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+        int done = getDoneCount();
+        notifyProgress(done);
+        if (done >= total) {
+            set(succeeded.get());
+        }
+    }
+
+    private void notifyProgress(final int done) {
+        final ProgressListener current = listener;
+        if (current == null || isCancelled()) {
+            return;
+        }
+        Handler currentHandler = handler;
+        if (currentHandler == null) {
+            current.onProgress(this, done, total);
+            return;
+        }
+        currentHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                current.onProgress(Prefetch.this, done, total);
+            }
+        });
+    }
+}
@@ -0,0 +1,294 @@
+package com.telly.wasp;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk tier holding already decoded pixels of small bitmaps, so loading them again is a
+ * single copy from a memory mapped file instead of a decode. Only bitmaps decoded at least
+ * twice are stored, see {@link #shouldStore(String)}.
+ * <p/>
+ * Each entry is named after the in memory cache key it was decoded for, and remembers the
+ * length and modification time of the encoded file it came from: once that file changes the
+ * entry is ignored and deleted. Least recently used entries are deleted to stay within
+ * its own maximum size, independent of the {@link DiskCache} one.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+class RawPixelCache {
+    /**
+     * Bitmaps bigger than this are not worth the space, 256x256 ARGB_8888
+     */
+    static final long MAX_ENTRY_SIZE = 256 * 256 * 4;
+    private static final int MAGIC = 0x57415350; // WASP
+    /**
+     * magic, width, height, config, source length and source modification time
+     */
+    private static final int HEADER_SIZE = 4 * 4 + 8 * 2;
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Keys decoded once, remembered to tell which ones are decoded again
+     */
+    private static final int MAX_SEEN = 512;
+    private static final Bitmap.Config[] CONFIGS = {
+            Bitmap.Config.ALPHA_8, Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444, Bitmap.Config.ARGB_8888
+    };
+
+    private final File directory;
+    /**
+     * Makes temporary files unique, entries of the same key may be written concurrently
+     */
+    private final AtomicLong tempCounter = new AtomicLong();
+    private long maxSize;
+    /**
+     * File name and length of each entry, least recently used first. Guarded by this.
+     */
+    private LinkedHashMap<String, Long> entries;
+    private long size;
+    private final LinkedHashMap<String, Boolean> seen = new LinkedHashMap<String, Boolean>(0, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_SEEN;
+        }
+    };
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Creates a cache in given directory, nothing is read until first used
+     *
+     * @param directory directory owned by this cache
+     * @param maxSize   maximum amount of bytes to store
+     */
+    RawPixelCache(File directory, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key    in memory cache key the bitmap was decoded for
+     * @param source encoded file the entry must come from
+     * @param pool   pool to take a bitmap to copy into from, may be null
+     * @return the bitmap, mutable, or null if there is no valid entry
+     */
+    Bitmap get(String key, File source, BitmapPool pool) {
+        String name = DiskCache.keyFor(key);
+        synchronized (this) {
+            ensureOpen();
+            if (entries.get(name) == null) {
+                missCount++;
+                return null;
+            }
+        }
+        File file = new File(directory, name);
+        Bitmap bitmap = null;
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+                bitmap = read(buffer, source, pool);
+            } finally {
+                input.close();
+            }
+        } catch (IOException ignored) {
+        } catch (OutOfMemoryError error) {
+            // too big for now, the encoded file will do
+            BitmapUtils.outOfMemory();
+            return null;
+        }
+        synchronized (this) {
+            if (bitmap == null) {
+                missCount++;
+                remove(name);
+            } else {
+                hitCount++;
+            }
+        }
+        return bitmap;
+    }
+
+    private static Bitmap read(ByteBuffer buffer, File source, BitmapPool pool) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            return null;
+        }
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int config = buffer.getInt();
+        if (buffer.getLong() != source.length() || buffer.getLong() != source.lastModified()
+                || width <= 0 || height <= 0 || config < 0 || config >= CONFIGS.length) {
+            // the encoded file changed since
+            return null;
+        }
+        Bitmap bitmap = pool != null ? pool.get(width, height, CONFIGS[config]) : null;
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, CONFIGS[config]);
+        }
+        if (buffer.remaining() < BitmapUtils.getBitmapSize(bitmap)) {
+            bitmap.recycle();
+            return null;
+        }
+        bitmap.copyPixelsFromBuffer(buffer);
+        return bitmap;
+    }
+
+    /**
+     * Records given key was decoded
+     *
+     * @return true if it was decoded before and it is not stored yet, so it is worth storing
+     */
+    synchronized boolean shouldStore(String key) {
+        if (seen.put(key, Boolean.TRUE) == null) {
+            return false;
+        }
+        ensureOpen();
+        return !entries.containsKey(DiskCache.keyFor(key));
+    }
+
+    /**
+     * Stores the pixels of given bitmap, unless it is too big
+     *
+     * @param key    in memory cache key the bitmap was decoded for
+     * @param source encoded file it was decoded from
+     * @return true if stored
+     */
+    boolean put(String key, File source, Bitmap bitmap) {
+        int config = Arrays.asList(CONFIGS).indexOf(bitmap.getConfig());
+        long length = BitmapUtils.getBitmapSize(bitmap);
+        if (config < 0 || length <= 0 || length > Math.min(MAX_ENTRY_SIZE, maxSize)) {
+            return false;
+        }
+        String name = DiskCache.keyFor(key);
+        File temp = new File(directory, name + "." + tempCounter.incrementAndGet() + TEMP_SUFFIX);
+        File file = new File(directory, name);
+        boolean written = false;
+        try {
+            RandomAccessFile output = new RandomAccessFile(temp, "rw");
+            try {
+                MappedByteBuffer buffer = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + length);
+                buffer.putInt(MAGIC);
+                buffer.putInt(bitmap.getWidth());
+                buffer.putInt(bitmap.getHeight());
+                buffer.putInt(config);
+                buffer.putLong(source.length());
+                buffer.putLong(source.lastModified());
+                bitmap.copyPixelsToBuffer(buffer);
+                buffer.force();
+            } finally {
+                output.close();
+            }
+            synchronized (this) {
+                ensureOpen();
+                IOUtils.commitTempFile(temp, file);
+                written = true;
+                Long previous = entries.put(name, HEADER_SIZE + length);
+                size += HEADER_SIZE + length - (previous != null ? previous : 0);
+                trimToSize(maxSize);
+            }
+        } catch (IOException ignored) {
+        } finally {
+            if (!written) {
+                temp.delete();
+            }
+        }
+        return written;
+    }
+
+    synchronized void setMaxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        if (entries != null) {
+            trimToSize(maxSize);
+        }
+    }
+
+    synchronized void clear() {
+        ensureOpen();
+        trimToSize(0);
+        seen.clear();
+    }
+
+    synchronized long size() {
+        ensureOpen();
+        return size;
+    }
+
+    synchronized long hitCount() {
+        return hitCount;
+    }
+
+    synchronized long missCount() {
+        return missCount;
+    }
+
+    private void trimToSize(long maxSize) {
+        for (Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+             size > maxSize && iterator.hasNext(); ) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    private void remove(String name) {
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+            new File(directory, name).delete();
+        }
+    }
+
+    /**
+     * Indexes whatever a previous process left, least recently modified first
+     */
+    private void ensureOpen() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+        size = 0;
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long a = first.lastModified();
+                long b = second.lastModified();
+                return a < b ? -1 : (a == b ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile()) {
+                entries.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+        trimToSize(maxSize);
+    }
+}
@@ -9,12 +9,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
+ * Loads a drawable resource, decoded straight from the APK. Register observers of it with
+ * {@link #uriFor(int)} as url to share bitmaps with {@link BitmapHelper#decodeResource}.
+ *
  * @author cristian
  * @version 1.0
  */
-public class ResourceBitmapLoader implements BitmapLoader {
+public class ResourceBitmapLoader implements DirectBitmapLoader {
+    private static final String URI_PREFIX = "drawable_resource:";
     private final Resources mResources;
     private final int mResId;
 
@@ -23,13 +28,38 @@ public class ResourceBitmapLoader implements BitmapLoader {
         mResId = resId;
     }
 
+    /**
+     * @return the uri bitmaps of given resource are cached under
+     */
+    public static String uriFor(int resId) {
+        return URI_PREFIX + resId;
+    }
+
+    @Override
+    public Bitmap loadBitmap(Context context, String uri, int targetWidth, int targetHeight) {
+        // a stream decodes into pooled bitmaps, downsampled if asked to
+        return null;
+    }
+
+    @Override
+    public InputStream openStream(Context context, String uri) throws IOException {
+        try {
+            return mResources.openRawResource(mResId);
+        } catch (Resources.NotFoundException e) {
+            throw new FileNotFoundException("No resource " + mResId);
+        }
+    }
+
     @Override
     public void load(Context context, String uri, File file) {
         Bitmap bitmap = BitmapFactory.decodeResource(mResources, mResId);
+        // never leave a half written file behind
+        File temp = IOUtils.tempFileFor(file);
         FileOutputStream outputStream = null;
+        boolean written = false;
         try {
-            outputStream = new FileOutputStream(file);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
+            outputStream = new FileOutputStream(temp);
+            written = bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } finally {
@@ -38,8 +68,18 @@ public class ResourceBitmapLoader implements BitmapLoader {
                     outputStream.close();
                 }
             } catch (IOException e) {
+                written = false;
                 e.printStackTrace();
             }
         }
+        try {
+            if (written) {
+                IOUtils.commitTempFile(temp, file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            temp.delete();
+        }
     }
 }
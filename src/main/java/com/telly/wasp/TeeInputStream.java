@@ -0,0 +1,113 @@
+package com.telly.wasp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies everything read, or skipped, from a stream into another one. Used to save a
+ * download to disk while it is being decoded.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+class TeeInputStream extends FilterInputStream {
+    private static final int BUFFER_SIZE = 4096; // 4 KiB
+    private final OutputStream output;
+    private final CancelToken token;
+    private long count;
+
+    /**
+     * @param input  stream to read from
+     * @param output stream to copy to, closed along with this one
+     * @param token  checked on every read, may be null
+     */
+    TeeInputStream(InputStream input, OutputStream output, CancelToken token) {
+        super(input);
+        this.output = output;
+        this.token = token;
+    }
+
+    @Override
+    public int read() throws IOException {
+        IOUtils.checkCancelled(token);
+        int read = in.read();
+        if (read != -1) {
+            output.write(read);
+            count++;
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        IOUtils.checkCancelled(token);
+        int read = in.read(buffer, offset, length);
+        if (read > 0) {
+            output.write(buffer, offset, read);
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped bytes are still needed in the copy
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(0, n))];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read <= 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Copies whatever is left in the stream, ignoring the cancel token
+     *
+     * @return total amount of bytes copied
+     */
+    long drain() throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+            count += read;
+        }
+        return count;
+    }
+
+    /**
+     * @return amount of bytes copied so far
+     */
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.telly.wasp;
+
+/**
+ * TinyLFU style {@link AdmissionPolicy}: keeps an approximate, aging access frequency of
+ * recently seen keys and only lets a new entry evict an older one if it was accessed at
+ * least as often. A long scan of never seen keys will then evict cold entries but bounce
+ * off the frequently used ones.
+ *
+ * @param <K> type of cache keys
+ * @author evelio
+ * @version 1.0
+ */
+public class TinyLfuAdmissionPolicy<K> implements AdmissionPolicy<K> {
+    private static final int DEFAULT_EXPECTED_ENTRIES = 512;
+
+    private final FrequencySketch sketch;
+
+    public TinyLfuAdmissionPolicy() {
+        this(DEFAULT_EXPECTED_ENTRIES);
+    }
+
+    /**
+     * @param expectedEntries rough number of entries the cache holds, used to size the
+     *                        frequency sketch
+     */
+    public TinyLfuAdmissionPolicy(int expectedEntries) {
+        sketch = new FrequencySketch(expectedEntries);
+    }
+
+    @Override
+    public void record(K key) {
+        sketch.increment(key.hashCode());
+    }
+
+    @Override
+    public boolean admit(K candidate, K victim) {
+        return sketch.frequency(candidate.hashCode()) >= sketch.frequency(victim.hashCode());
+    }
+
+    /**
+     * @return estimated number of accesses recorded for given key
+     */
+    public int frequency(K key) {
+        return sketch.frequency(key.hashCode());
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters. Once enough increments happen every counter is
+     * halved so old popularity fades away.
+     */
+    static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0x3c6ef373, 0xa54ff53b, 0x510e527f};
+        private static final int DEPTH = SEEDS.length;
+        private static final int MAX_COUNT = 15;
+        private static final int SAMPLE_FACTOR = 10;
+
+        private final byte[] table;
+        private final int width;
+        private final int widthMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int width = 16;
+            while (width < expectedEntries && width < (1 << 24)) {
+                width <<= 1;
+            }
+            this.width = width;
+            this.widthMask = width - 1;
+            this.table = new byte[DEPTH * width];
+            this.sampleSize = SAMPLE_FACTOR * width;
+        }
+
+        void increment(int hashCode) {
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hashCode, i);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int hashCode) {
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, table[indexOf(hashCode, i)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hashCode, int row) {
+            int hash = (hashCode + SEEDS[row]) * SEEDS[row];
+            hash ^= hash >>> 16;
+            return row * width + (hash & widthMask);
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (byte) (table[i] >>> 1);
+            }
+            additions /= 2;
+        }
+    }
+}
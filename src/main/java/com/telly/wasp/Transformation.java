@@ -0,0 +1,27 @@
+package com.telly.wasp;
+
+import android.graphics.Bitmap;
+
+/**
+ * Derives a bitmap from a loaded one, e.g. cropping or rounding it. Bitmaps are cached
+ * already transformed, under a key including {@link #getKey()} of every transformation
+ * applied, see {@link BaseBitmapObserver#setTransformations}.
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public interface Transformation {
+    /**
+     * Called from loading threads
+     *
+     * @param source bitmap to transform, must not be recycled nor modified
+     * @return the transformed bitmap, source itself if there is nothing to do
+     */
+    Bitmap transform(Bitmap source);
+
+    /**
+     * @return stable identifier of this transformation and its parameters, two
+     *         transformations with the same key must produce the same bitmap
+     */
+    String getKey();
+}
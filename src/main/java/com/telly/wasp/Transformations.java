@@ -0,0 +1,122 @@
+package com.telly.wasp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+import java.util.List;
+
+/**
+ * Common {@link Transformation}s
+ *
+ * @author evelio
+ * @version 1.0
+ */
+public final class Transformations {
+    /**
+     * Non instance class
+     */
+    private Transformations() {
+    }
+
+    /**
+     * @return a transformation scaling bitmaps to exactly the given size
+     */
+    public static Transformation scale(final int width, final int height) {
+        checkSize(width, height);
+        return new Transformation() {
+            @Override
+            public Bitmap transform(Bitmap source) {
+                return Bitmap.createScaledBitmap(source, width, height, true);
+            }
+
+            @Override
+            public String getKey() {
+                return "scale(" + width + "x" + height + ")";
+            }
+        };
+    }
+
+    /**
+     * @return a transformation scaling bitmaps to cover the given size, keeping their aspect
+     *         ratio, and cropping what is left out around the center
+     */
+    public static Transformation centerCrop(final int width, final int height) {
+        checkSize(width, height);
+        return new Transformation() {
+            @Override
+            public Bitmap transform(Bitmap source) {
+                float scale = Math.max((float) width / source.getWidth(), (float) height / source.getHeight());
+                int cropWidth = Math.min(source.getWidth(), Math.round(width / scale));
+                int cropHeight = Math.min(source.getHeight(), Math.round(height / scale));
+                Bitmap cropped = Bitmap.createBitmap(source, (source.getWidth() - cropWidth) / 2,
+                        (source.getHeight() - cropHeight) / 2, cropWidth, cropHeight);
+                if (cropped.getWidth() == width && cropped.getHeight() == height) {
+                    return cropped;
+                }
+                Bitmap scaled = Bitmap.createScaledBitmap(cropped, width, height, true);
+                if (cropped != source && cropped != scaled) {
+                    cropped.recycle();
+                }
+                return scaled;
+            }
+
+            @Override
+            public String getKey() {
+                return "centerCrop(" + width + "x" + height + ")";
+            }
+        };
+    }
+
+    /**
+     * @param radius corner radius in pixels
+     * @return a transformation rounding the corners of bitmaps, leaving them transparent
+     */
+    public static Transformation roundCorners(final float radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("radius < 0");
+        }
+        return new Transformation() {
+            @Override
+            public Bitmap transform(Bitmap source) {
+                Bitmap rounded = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+                Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+                paint.setShader(new BitmapShader(source, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+                new Canvas(rounded).drawRoundRect(new RectF(0, 0, source.getWidth(), source.getHeight()),
+                        radius, radius, paint);
+                return rounded;
+            }
+
+            @Override
+            public String getKey() {
+                return "roundCorners(" + radius + ")";
+            }
+        };
+    }
+
+    /**
+     * @return key identifying the given chain, empty if there is nothing to apply
+     */
+    static String keyOf(List<Transformation> transformations) {
+        if (transformations == null || transformations.isEmpty()) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder();
+        for (Transformation transformation : transformations) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            key.append(transformation.getKey());
+        }
+        return key.toString();
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be > 0");
+        }
+    }
+}
@@ -1,40 +1,95 @@
 package com.telly.wasp;
 
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Refactored version of Android's LruCache with the ability of update a given entry
+ * <p/>
+ * Reads are lock free: entries live in a {@link ConcurrentHashMap} and a hit only records
+ * the access in a striped, lossy read buffer. The access order list is kept behind an
+ * eviction lock and reordered in batches, by whichever thread manages to acquire that lock
+ * while the buffers fill up or by the next write. Writes (put, remove, trim) are serialized
+ * by the eviction lock, but a hit never waits on it.
  *
  * @author evelio
- * @version 1.0
+ * @version 1.2
  */
 class UpdateableLruCache<K, V> {
-    private final LinkedHashMap<K, V> map;
+    /**
+     * Number of read buffers, must be a power of two
+     */
+    private static final int READ_BUFFERS = 4;
+    private static final int READ_BUFFERS_MASK = READ_BUFFERS - 1;
+    /**
+     * Size of each read buffer, must be a power of two
+     */
+    private static final int READ_BUFFER_SIZE = 32;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    /**
+     * Amount of pending reads in a buffer that makes a reader try to drain
+     */
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    /**
+     * Sentinel of the access ordered list, {@code head.next} is the eldest entry
+     * and {@code head.prev} the youngest one. Guarded by {@link #evictionLock}.
+     */
+    private final Node<K, V> head;
+    private final ReentrantLock evictionLock;
+    private final ReadBuffer[] readBuffers;
+    /**
+     * Values being created right now by {@link #create}, by key
+     */
+    private final ConcurrentHashMap<K, Flight<V>> inFlight;
 
     /**
      * Size of this cache in units. Not necessarily the number of elements.
+     * Only written while holding {@link #evictionLock}.
      */
-    private int size;
-    private int maxSize;
+    private volatile long size;
+    private volatile long maxSize;
+    /**
+     * Null means plain LRU: new entries always win
+     */
+    private volatile AdmissionPolicy<K> admissionPolicy;
 
-    private int putCount;
-    private int createCount;
-    private int evictionCount;
-    private int hitCount;
-    private int missCount;
+    private final AtomicLong putCount = new AtomicLong();
+    private final AtomicLong createCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
      *                the maximum number of entries in the cache. For all other caches,
      *                this is the maximum sum of the sizes of the entries in this cache.
      */
-    public UpdateableLruCache(int maxSize) {
+    public UpdateableLruCache(long maxSize) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         this.maxSize = maxSize;
-        this.map = new LinkedHashMap<K, V>(0, 0.75f, true);
+        this.map = new ConcurrentHashMap<K, Node<K, V>>();
+        this.head = new Node<K, V>(null, null);
+        this.head.prev = this.head.next = this.head;
+        this.evictionLock = new ReentrantLock();
+        this.inFlight = new ConcurrentHashMap<K, Flight<V>>();
+        this.readBuffers = new ReadBuffer[READ_BUFFERS];
+        for (int i = 0; i < READ_BUFFERS; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
     }
 
     /**
@@ -48,16 +103,46 @@ class UpdateableLruCache<K, V> {
             throw new NullPointerException("key == null");
         }
 
-        V mapValue;
-        synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
-                hitCount++;
-                return mapValue;
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            hitCount.incrementAndGet();
+            afterRead(node);
+            return node.value;
+        }
+        missCount.incrementAndGet();
+
+        /*
+         * Only one thread creates a value for a given key at a time, any other
+         * thread missing the same key waits for that value instead of creating
+         * its own.
+         */
+        Flight<V> flight = new Flight<V>();
+        Flight<V> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            coalescedCount.incrementAndGet();
+            return running.await();
+        }
+        try {
+            // a flight may have inserted it and landed between our miss and now
+            node = map.get(key);
+            V value = node != null ? node.value : createAndInsert(key);
+            if (node != null) {
+                afterRead(node);
             }
-            missCount++;
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            flight.fail(e);
+            throw e;
+        } catch (Error e) {
+            flight.fail(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
         }
+    }
 
+    private V createAndInsert(K key) {
         /*
          * Attempt to create a value. This may take a long time, and the map
          * may be different when create() returns. If a conflicting value was
@@ -70,30 +155,42 @@ class UpdateableLruCache<K, V> {
             return null;
         }
 
-        synchronized (this) {
-            createCount++;
-            mapValue = map.put(key, createdValue);
-
-            if (mapValue != null) {
-                // There was a conflict so undo that last put
-                map.put(key, mapValue);
+        V mapValue = null;
+        Node<K, V> node;
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            createCount.incrementAndGet();
+            node = map.get(key);
+            if (node != null) {
+                // There was a conflict so keep the value already there
+                mapValue = node.value;
+                moveToTail(node);
             } else {
+                node = new Node<K, V>(key, createdValue);
+                map.put(key, node);
+                linkLast(node);
+                recordAccess(key);
                 size += safeSizeOf(key, createdValue);
             }
+        } finally {
+            evictionLock.unlock();
         }
 
         if (mapValue != null) {
             entryRemoved(false, key, createdValue, mapValue);
             return mapValue;
         } else {
-            trimToSize(maxSize);
+            trim(maxSize, node);
             return createdValue;
         }
     }
 
     /**
      * Caches {@code value} for {@code key}. The value is moved to the head of
-     * the queue.
+     * the queue. Only a put that makes the entry take room it did not take before,
+     * either a new one or an update of a 0 sized one, goes through the admission
+     * policy, an update alone is not counted as an access.
      *
      * @return the previous value mapped by {@code key}.
      */
@@ -102,25 +199,43 @@ class UpdateableLruCache<K, V> {
             throw new NullPointerException("key == null || value == null");
         }
 
-        V previous;
-        synchronized (this) {
-            putCount++;
-            size += safeSizeOf(key, value);
-            previous = map.put(key, value);
-            if (previous != null) {
+        V previous = null;
+        Node<K, V> node;
+        long previousSize = 0;
+        long valueSize;
+        evictionLock.lock();
+        try {
+            // replay pending reads first so they are not ordered after this write
+            drainReadBuffers();
+            putCount.incrementAndGet();
+            valueSize = safeSizeOf(key, value);
+            node = map.get(key);
+            if (node == null) {
+                node = new Node<K, V>(key, value);
+                map.put(key, node);
+                linkLast(node);
+                recordAccess(key);
+            } else {
+                previous = node.value;
+                node.value = value;
+                moveToTail(node);
                 if (previous.equals(value)) {
-                    size -= safePreviousSizeOf(key, previous);
+                    previousSize = safePreviousSizeOf(key, previous);
                 } else {
-                    size -= safeSizeOf(key, previous);
+                    previousSize = safeSizeOf(key, previous);
                 }
             }
+            size += valueSize - previousSize;
+        } finally {
+            evictionLock.unlock();
         }
 
         if (previous != null) {
             entryRemoved(false, key, previous, value);
         }
 
-        trimToSize(maxSize);
+        // e.g. an entry put while loading takes no room until its value gets loaded
+        trim(maxSize, previousSize == 0 && valueSize > 0 ? node : null);
         return previous;
     }
 
@@ -128,11 +243,24 @@ class UpdateableLruCache<K, V> {
      * @param maxSize the maximum size of the cache before returning. May be -1
      *                to evict even 0-sized elements.
      */
-    void trimToSize(int maxSize) {
-        while (true) {
-            K key;
-            V value;
-            synchronized (this) {
+    void trimToSize(long maxSize) {
+        trim(maxSize, null);
+    }
+
+    /**
+     * Evicts entries until the cache fits in given size. If a candidate is given, that is
+     * the entry that just started taking room and caused this trim, the admission policy
+     * gets to decide whether it is worth more than each would-be victim, if not the
+     * candidate is the one evicted instead, see {@link #entryRejected}.
+     */
+    private void trim(long maxSize, Node<K, V> candidate) {
+        final AdmissionPolicy<K> policy = admissionPolicy;
+        List<Node<K, V>> evicted = null;
+        Node<K, V> rejected = null;
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            while (true) {
                 if (size < 0) {
                     throw new IllegalStateException(getClass().getName()
                             + ".sizeOf() is reporting inconsistent results size < 0");
@@ -142,19 +270,43 @@ class UpdateableLruCache<K, V> {
                             + ".sizeOf() is reporting inconsistent results map.isEmpty() && size != 0");
                 }
 
-                if (size <= maxSize || map.isEmpty()) {
+                if (size <= maxSize || head.next == head) {
                     break;
                 }
 
-                Map.Entry<K, V> toEvict = map.entrySet().iterator().next();
-                key = toEvict.getKey();
-                value = toEvict.getValue();
-                map.remove(key);
-                size -= safeSizeOf(key, value);
-                evictionCount++;
+                Node<K, V> toEvict = head.next;
+                if (policy != null && candidate != null && candidate != toEvict && candidate.next != null) {
+                    if (policy.admit(candidate.key, toEvict.key)) {
+                        admittedCount.incrementAndGet();
+                    } else {
+                        rejectedCount.incrementAndGet();
+                        toEvict = rejected = candidate;
+                        candidate = null;
+                    }
+                }
+                unlink(toEvict);
+                map.remove(toEvict.key);
+                size -= safeSizeOf(toEvict.key, toEvict.value);
+                evictionCount.incrementAndGet();
+                if (toEvict == rejected) {
+                    continue;
+                }
+                if (evicted == null) {
+                    evicted = new LinkedList<Node<K, V>>();
+                }
+                evicted.add(toEvict);
             }
+        } finally {
+            evictionLock.unlock();
+        }
 
-            entryRemoved(true, key, value, null);
+        if (rejected != null) {
+            entryRejected(rejected.key, rejected.value);
+        }
+        if (evicted != null) {
+            for (Node<K, V> node : evicted) {
+                entryRemoved(true, node.key, node.value, null);
+            }
         }
     }
 
@@ -168,12 +320,17 @@ class UpdateableLruCache<K, V> {
             throw new NullPointerException("key == null");
         }
 
-        V previous;
-        synchronized (this) {
-            previous = map.remove(key);
-            if (previous != null) {
+        V previous = null;
+        evictionLock.lock();
+        try {
+            Node<K, V> node = map.remove(key);
+            if (node != null) {
+                unlink(node);
+                previous = node.value;
                 size -= safeSizeOf(key, previous);
             }
+        } finally {
+            evictionLock.unlock();
         }
 
         if (previous != null) {
@@ -201,6 +358,16 @@ class UpdateableLruCache<K, V> {
     protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
     }
 
+    /**
+     * Called for an entry the admission policy evicted right away in favor of the entries
+     * it would have evicted to make room for it, without synchronization as
+     * {@link #entryRemoved}. The default implementation calls
+     * {@code entryRemoved(true, key, value, null)}.
+     */
+    protected void entryRejected(K key, V value) {
+        entryRemoved(true, key, value, null);
+    }
+
     /**
      * Called after a cache miss to compute a value for the corresponding key.
      * Returns the computed value or null if no value can be computed. The
@@ -209,12 +376,14 @@ class UpdateableLruCache<K, V> {
      * <p>The method is called without synchronization: other threads may
      * access the cache while this method is executing.
      * <p/>
+     * <p>Only one thread at a time creates a value for a given key: other threads
+     * missing the same key meanwhile wait for it and get the very same value (or
+     * exception). Hence this method must not call {@link #get} for {@code key}.
+     * <p/>
      * <p>If a value for {@code key} exists in the cache when this method
      * returns, the created value will be released with {@link #entryRemoved}
-     * and discarded. This can occur when multiple threads request the same key
-     * at the same time (causing multiple values to be created), or when one
-     * thread calls {@link #put} while another is creating a value for the same
-     * key.
+     * and discarded. This can occur when one thread calls {@link #put} while
+     * another is creating a value for the same key.
      *
      * @return the new value
      */
@@ -222,16 +391,16 @@ class UpdateableLruCache<K, V> {
         return null;
     }
 
-    private int safeSizeOf(K key, V value) {
-        int result = sizeOf(key, value);
+    private long safeSizeOf(K key, V value) {
+        long result = sizeOf(key, value);
         if (result < 0) {
             throw new IllegalStateException("Negative size: " + key + "=" + value);
         }
         return result;
     }
 
-    private int safePreviousSizeOf(K key, V value) {
-        int result = previousSizeOf(key, value);
+    private long safePreviousSizeOf(K key, V value) {
+        long result = previousSizeOf(key, value);
         if (result < 0) {
             throw new IllegalStateException("Negative previous size: " + key + "=" + value);
         }
@@ -245,7 +414,7 @@ class UpdateableLruCache<K, V> {
      * <p/>
      * <p>An entry's size should not change while it is in the cache.
      */
-    protected int sizeOf(K key, V value) {
+    protected long sizeOf(K key, V value) {
         return 1;
     }
 
@@ -254,7 +423,7 @@ class UpdateableLruCache<K, V> {
      * user-defined units.  The default implementation returns 1 so that size
      * is the number of entries and max size is the maximum number of entries.
      */
-    protected int previousSizeOf(K key, V value) {
+    protected long previousSizeOf(K key, V value) {
         return 1;
     }
 
@@ -266,12 +435,41 @@ class UpdateableLruCache<K, V> {
         trimToSize(-1); // -1 will evict 0-sized elements
     }
 
+    /**
+     * Changes the maximum size of this cache, evicting entries right away if
+     * the current contents do not fit in the new one.
+     *
+     * @param maxSize the new maximum size, see {@link #UpdateableLruCache(long)}
+     */
+    public void resize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Sets the policy deciding whether a new entry may evict an older one, eviction
+     * order is still least recently used first.
+     *
+     * @param policy policy to use or null to always admit new entries (plain LRU)
+     */
+    public void setAdmissionPolicy(AdmissionPolicy<K> policy) {
+        evictionLock.lock();
+        try {
+            admissionPolicy = policy;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
     /**
      * For caches that do not override {@link #sizeOf}, this returns the number
      * of entries in the cache. For all other caches, this returns the sum of
      * the sizes of the entries in this cache.
      */
-    public synchronized final int size() {
+    public final long size() {
         return size;
     }
 
@@ -280,63 +478,295 @@ class UpdateableLruCache<K, V> {
      * number of entries in the cache. For all other caches, this returns the
      * maximum sum of the sizes of the entries in this cache.
      */
-    public synchronized final int maxSize() {
+    public final long maxSize() {
         return maxSize;
     }
 
     /**
      * Returns the number of times {@link #get} returned a value.
      */
-    public synchronized final int hitCount() {
-        return hitCount;
+    public final long hitCount() {
+        return hitCount.get();
     }
 
     /**
      * Returns the number of times {@link #get} returned null or required a new
      * value to be created.
      */
-    public synchronized final int missCount() {
-        return missCount;
+    public final long missCount() {
+        return missCount.get();
     }
 
     /**
      * Returns the number of times {@link #create(Object)} returned a value.
      */
-    public synchronized final int createCount() {
-        return createCount;
+    public final long createCount() {
+        return createCount.get();
+    }
+
+    /**
+     * Returns the number of times {@link #get} waited for a value being created
+     * by another thread instead of creating its own.
+     */
+    public final long coalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Returns the number of times the admission policy let a new entry in at the
+     * cost of an older one.
+     */
+    public final long admittedCount() {
+        return admittedCount.get();
+    }
+
+    /**
+     * Returns the number of new entries the admission policy evicted right away
+     * in favor of the older entry they would have replaced.
+     */
+    public final long rejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the ratio of {@link #get} calls that returned a cached value, 0 if
+     * there were no calls at all.
+     */
+    public final double hitRate() {
+        long hits = hitCount.get();
+        long accesses = hits + missCount.get();
+        return accesses != 0 ? (double) hits / accesses : 0;
+    }
+
+    /**
+     * Resets every counter, handy to compare hit rates across admission policies.
+     */
+    public final void resetStats() {
+        putCount.set(0);
+        createCount.set(0);
+        coalescedCount.set(0);
+        evictionCount.set(0);
+        admittedCount.set(0);
+        rejectedCount.set(0);
+        hitCount.set(0);
+        missCount.set(0);
     }
 
     /**
      * Returns the number of times {@link #put} was called.
      */
-    public synchronized final int putCount() {
-        return putCount;
+    public final long putCount() {
+        return putCount.get();
     }
 
     /**
      * Returns the number of values that have been evicted.
      */
-    public synchronized final int evictionCount() {
-        return evictionCount;
+    public final long evictionCount() {
+        return evictionCount.get();
     }
 
     /**
      * Returns a copy of the current contents of the cache, ordered from least
      * recently accessed to most recently accessed.
      */
-    public synchronized final Map<K, V> snapshot() {
-        return new LinkedHashMap<K, V>(map);
+    public final Map<K, V> snapshot() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            LinkedHashMap<K, V> snapshot = new LinkedHashMap<K, V>();
+            for (Node<K, V> node = head.next; node != head; node = node.next) {
+                snapshot.put(node.key, node.value);
+            }
+            return snapshot;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     @Override
-    public synchronized final String toString() {
-        int accesses = hitCount + missCount;
-        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
-        return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
-                maxSize, hitCount, missCount, hitPercent);
+    public final String toString() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        long accesses = hits + misses;
+        long hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,rejected=%d]",
+                maxSize, hits, misses, hitPercent, rejectedCount.get());
     }
 
     public int cacheSize() {
         return map.size();
     }
-}
\ No newline at end of file
+
+    /**
+     * Records a read of given node, draining the read buffers if they are getting full
+     * and nobody else is doing it already. Never blocks.
+     */
+    private void afterRead(Node<K, V> node) {
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & READ_BUFFERS_MASK];
+        long pending = buffer.offer(node);
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replays buffered reads into the access order. Must hold {@link #evictionLock}.
+     */
+    @SuppressWarnings("unchecked")
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            long read = buffer.readCount;
+            long written = buffer.writeCount.get();
+            for (; read < written; read++) {
+                int index = (int) (read & READ_BUFFER_MASK);
+                Node<K, V> node = (Node<K, V>) buffer.slots.get(index);
+                if (node == null) {
+                    // claimed but not published yet, pick it up on next drain
+                    break;
+                }
+                buffer.slots.set(index, null);
+                moveToTail(node);
+                recordAccess(node.key);
+            }
+            buffer.readCount = read;
+        }
+    }
+
+    /**
+     * Must hold {@link #evictionLock}
+     */
+    private void recordAccess(K key) {
+        AdmissionPolicy<K> policy = admissionPolicy;
+        if (policy != null) {
+            policy.record(key);
+        }
+    }
+
+    /**
+     * Must hold {@link #evictionLock}
+     */
+    private void linkLast(Node<K, V> node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    /**
+     * Must hold {@link #evictionLock}
+     */
+    private void unlink(Node<K, V> node) {
+        if (node.next == null) {
+            return;
+        }
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+    }
+
+    /**
+     * Must hold {@link #evictionLock}. Nodes already removed from the list are ignored,
+     * as stale buffered reads may still point to them.
+     */
+    private void moveToTail(Node<K, V> node) {
+        if (node.next == null || node == head.prev) {
+            return;
+        }
+        unlink(node);
+        linkLast(node);
+    }
+
+    /**
+     * An entry in the cache, also a link of the access ordered list
+     */
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        /**
+         * Guarded by {@link UpdateableLruCache#evictionLock}, both null once unlinked
+         */
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A value creation other threads can wait for
+     */
+    private static final class Flight<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private V value;
+        private Throwable failure;
+
+        void complete(V value) {
+            this.value = value;
+            done.countDown();
+        }
+
+        void fail(Throwable failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        V await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Bounded, lossy buffer of reads. Readers claim a slot with a CAS and simply drop the
+     * access if the buffer is full or contended, losing a bit of ordering precision is
+     * preferred over blocking a hit.
+     */
+    private static final class ReadBuffer {
+        final AtomicLong writeCount = new AtomicLong();
+        final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(READ_BUFFER_SIZE);
+        /**
+         * Only written while holding the eviction lock
+         */
+        volatile long readCount;
+
+        /**
+         * @return amount of pending reads in this buffer
+         */
+        long offer(Object node) {
+            long written = writeCount.get();
+            long pending = written - readCount;
+            if (pending >= READ_BUFFER_SIZE) {
+                return pending;
+            }
+            if (writeCount.compareAndSet(written, written + 1)) {
+                slots.set((int) (written & READ_BUFFER_MASK), node);
+                pending++;
+            }
+            return pending;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.telly.wasp;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link BitmapHelper.BitmapRefCache}
+ */
+public class BitmapRefCacheTest extends TestCase {
+    private static final long BITMAP_SIZE = 100;
+
+    public void testScanOfLoadedRefsLeavesHotRefsResident() throws Exception {
+        BitmapHelper.BitmapRefCache cache = new BitmapHelper.BitmapRefCache(new BitmapPool(0), 4 * BITMAP_SIZE);
+        List<BitmapHelper.BitmapRef> hot = new ArrayList<BitmapHelper.BitmapRef>();
+        for (int i = 0; i < 4; i++) {
+            hot.add(load(cache, "http://hot" + i));
+        }
+        for (int i = 0; i < 20; i++) {
+            for (BitmapHelper.BitmapRef ref : hot) {
+                cache.get(ref.getKey());
+            }
+            cache.snapshot();
+        }
+
+        List<BitmapHelper.BitmapRef> scan = new ArrayList<BitmapHelper.BitmapRef>();
+        for (int i = 0; i < 50; i++) {
+            scan.add(load(cache, "http://scan" + i));
+        }
+
+        for (BitmapHelper.BitmapRef ref : hot) {
+            assertSame(ref, cache.get(ref.getKey()));
+        }
+        assertEquals(4 * BITMAP_SIZE, cache.size());
+        assertEquals(50, cache.rejectedCount());
+        for (BitmapHelper.BitmapRef ref : scan) {
+            assertNull(cache.get(ref.getKey()));
+            // only forgotten, not recycled
+            assertEquals(1, ref.countObservers());
+        }
+    }
+
+    /**
+     * Loads a ref the way registering an observer does: a placeholder first, then its bitmap
+     */
+    private static BitmapHelper.BitmapRef load(BitmapHelper.BitmapRefCache cache, String url) {
+        BitmapHelper.BitmapRef ref = new BitmapHelper.BitmapRef(url);
+        cache.putAndObserve(ref.getKey(), ref);
+        ref.loaded(null, BITMAP_SIZE);
+        return ref;
+    }
+}
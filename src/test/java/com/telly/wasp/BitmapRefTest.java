@@ -0,0 +1,122 @@
+package com.telly.wasp;
+
+import android.graphics.Bitmap;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link BitmapHelper.BitmapRef}
+ */
+public class BitmapRefTest extends TestCase {
+
+    public void testPrunesObserversThatMovedOn() throws Exception {
+        BitmapHelper.BitmapRef ref = new BitmapHelper.BitmapRef("http://a");
+        Callback first = new Callback("http://a");
+        Callback second = new Callback("http://a");
+        ref.addObserver(new CallbackBitmapObserver(first, "http://a"));
+        ref.addObserver(new CallbackBitmapObserver(second, "http://a"));
+        assertTrue(ref.pruneObservers());
+
+        first.wanted = "http://b";
+        assertTrue(ref.pruneObservers());
+        assertEquals(1, ref.countObservers());
+
+        second.wanted = null;
+        assertFalse(ref.pruneObservers());
+        assertEquals(0, ref.countObservers());
+    }
+
+    public void testStickyObserverDoesNotKeepLoadAlive() throws Exception {
+        BitmapHelper.BitmapRef ref = new BitmapHelper.BitmapRef("http://a");
+        ref.setStickyObserver(new BaseBitmapObserver.NoOpObserver() {
+            @Override
+            boolean stillNeeds(String uri) {
+                fail("sticky observer must not be asked");
+                return true;
+            }
+        });
+        assertFalse(ref.pruneObservers());
+
+        ref.addObserver(new BaseBitmapObserver.NoOpObserver());
+        assertTrue(ref.pruneObservers());
+        ref.deleteObservers();
+        assertFalse(ref.pruneObservers());
+        assertEquals(1, ref.countObservers());
+    }
+
+    public void testNotifiesNewestFirstAndStickyLast() throws Exception {
+        BitmapHelper.BitmapRef ref = new BitmapHelper.BitmapRef("http://a");
+        List<String> notified = new ArrayList<String>();
+        ref.setStickyObserver(new Recorder("sticky", notified));
+        Recorder first = new Recorder("first", notified);
+        ref.addObserver(first);
+        ref.addObserver(new Recorder("second", notified));
+        ref.addObserver(first);
+        assertEquals(3, ref.countObservers());
+
+        ref.loaded(null);
+        assertEquals(Arrays.asList("second", "first", "sticky"), notified);
+        assertEquals(1, ref.countObservers());
+
+        notified.clear();
+        ref.loaded(null);
+        assertEquals(Arrays.asList("sticky"), notified);
+    }
+
+    public void testKeyIncludesTransformations() throws Exception {
+        assertEquals("http://a @10x20", new BitmapHelper.BitmapRef("http://a", 10, 20).getKey());
+        List<Transformation> transformations = Arrays.asList(
+                Transformations.centerCrop(10, 10), Transformations.roundCorners(4));
+        BitmapHelper.BitmapRef ref = new BitmapHelper.BitmapRef("http://a", 10, 20, transformations, true);
+        assertEquals("http://a @10x20 #centerCrop(10x10),roundCorners(4.0)", ref.getKey());
+        assertTrue(ref.persistTransformed);
+
+        ref = new BitmapHelper.BitmapRef("http://a", 0, 0, Collections.<Transformation>emptyList(), true);
+        assertEquals("http://a", ref.getKey());
+        assertFalse(ref.persistTransformed);
+    }
+
+    public void testCacheOnlyRefsHaveTheirOwnKey() throws Exception {
+        BitmapHelper.BitmapRef ref = BitmapHelper.BitmapRef.cacheOnly("http://a", 10, 20,
+                Collections.<Transformation>emptyList());
+        assertTrue(ref.cacheOnly);
+        assertFalse(ref.getKey().equals(new BitmapHelper.BitmapRef("http://a", 10, 20).getKey()));
+        assertEquals(BitmapHelper.BitmapRef.cacheOnlyKeyFor("http://a", 10, 20, ""), ref.getKey());
+    }
+
+    private static class Recorder implements BitmapHelper.BitmapRef.Listener {
+        private final String name;
+        private final List<String> notified;
+
+        Recorder(String name, List<String> notified) {
+            this.name = name;
+            this.notified = notified;
+        }
+
+        @Override
+        public void onBitmapLoaded(BitmapHelper.BitmapRef ref) {
+            notified.add(name);
+        }
+    }
+
+    private static class Callback implements CallbackBitmapObserver.BitmapCallback {
+        volatile String wanted;
+
+        Callback(String wanted) {
+            this.wanted = wanted;
+        }
+
+        @Override
+        public boolean stillNeedsUrl(String uri) {
+            return uri.equals(wanted);
+        }
+
+        @Override
+        public void receiveBitmap(String uri, Bitmap bitmap) {
+        }
+    }
+}
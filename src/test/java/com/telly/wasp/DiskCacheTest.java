@@ -0,0 +1,147 @@
+package com.telly.wasp;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Tests for {@link DiskCache}
+ */
+public class DiskCacheTest extends TestCase {
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new File(System.getProperty("java.io.tmpdir"), "wasp-disk-cache-test-" + System.nanoTime());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(directory);
+        super.tearDown();
+    }
+
+    public void testCommitAndGet() throws Exception {
+        DiskCache cache = new DiskCache(directory, 100);
+        assertNull(cache.get("http://a"));
+
+        File committed = cache.commit("http://a", write(cache.newTempFile(), 10));
+        assertNotNull(committed);
+        assertEquals(committed, cache.get("http://a"));
+        assertEquals(10, cache.size());
+        assertEquals(1, cache.count());
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        DiskCache cache = new DiskCache(directory, 25);
+        cache.commit("http://a", write(cache.newTempFile(), 10));
+        cache.commit("http://b", write(cache.newTempFile(), 10));
+        cache.get("http://a");
+        cache.commit("http://c", write(cache.newTempFile(), 10));
+
+        assertNotNull(cache.get("http://a"));
+        assertNull(cache.get("http://b"));
+        assertNotNull(cache.get("http://c"));
+        assertEquals(20, cache.size());
+    }
+
+    public void testJournalSurvivesRestart() throws Exception {
+        DiskCache cache = new DiskCache(directory, 25);
+        cache.commit("http://a", write(cache.newTempFile(), 10));
+        cache.commit("http://b", write(cache.newTempFile(), 10));
+        cache.remove("http://b");
+        cache.commit("http://c", write(cache.newTempFile(), 5));
+        cache.get("http://a");
+        cache.close();
+
+        DiskCache reopened = new DiskCache(directory, 25);
+        assertEquals(2, reopened.count());
+        assertEquals(15, reopened.size());
+        assertNull(reopened.get("http://b"));
+        // a was used last so c goes first
+        reopened.commit("http://d", write(reopened.newTempFile(), 11));
+        assertNull(reopened.get("http://c"));
+        assertNotNull(reopened.get("http://a"));
+    }
+
+    public void testKeysDoNotCollideOnHashCode() throws Exception {
+        // both strings share the same String#hashCode()
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertFalse(DiskCache.keyFor("Aa").equals(DiskCache.keyFor("BB")));
+    }
+
+    public void testUncommittedFilesAreNotVisible() throws Exception {
+        DiskCache cache = new DiskCache(directory, 100);
+        File temp = write(cache.newTempFile(), 10);
+        assertNull(cache.get("http://a"));
+        cache.abort(temp);
+        assertFalse(temp.exists());
+        assertEquals(0, cache.size());
+    }
+
+    public void testMetadataGoesAwayWithItsEntry() throws Exception {
+        DiskCache cache = new DiskCache(directory, 25);
+        Properties metadata = new Properties();
+        metadata.setProperty("etag", "v1");
+        assertFalse(cache.putMetadata("http://a", metadata));
+
+        cache.commit("http://a", write(cache.newTempFile(), 10));
+        assertTrue(cache.putMetadata("http://a", metadata));
+        assertEquals("v1", cache.getMetadata("http://a").getProperty("etag"));
+
+        // new content, old validators no longer apply
+        cache.commit("http://a", write(cache.newTempFile(), 10));
+        assertNull(cache.getMetadata("http://a"));
+
+        cache.putMetadata("http://a", metadata);
+        cache.commit("http://b", write(cache.newTempFile(), 10));
+        cache.commit("http://c", write(cache.newTempFile(), 10));
+        assertNull(cache.getMetadata("http://a"));
+        assertFalse(new File(directory, DiskCache.keyFor("http://a") + DiskCache.METADATA_SUFFIX).exists());
+    }
+
+    public void testPartialDownloadsSurviveRestart() throws Exception {
+        DiskCache cache = new DiskCache(directory, 100);
+        File partial = cache.acquirePartial("http://a");
+        assertNotNull(partial);
+        assertNull(cache.acquirePartial("http://a"));
+        write(partial, 10);
+        Properties metadata = new Properties();
+        metadata.setProperty("etag", "v1");
+        assertTrue(cache.putPartialMetadata("http://a", metadata));
+        cache.releasePartial("http://a", true);
+        cache.close();
+
+        DiskCache reopened = new DiskCache(directory, 100);
+        partial = reopened.acquirePartial("http://a");
+        assertEquals(10, partial.length());
+        assertEquals("v1", reopened.getPartialMetadata("http://a").getProperty("etag"));
+        assertEquals(0, reopened.size());
+
+        assertNotNull(reopened.commit("http://a", partial));
+        reopened.releasePartial("http://a", false);
+        assertNull(reopened.getPartialMetadata("http://a"));
+        assertEquals(10, reopened.size());
+    }
+
+    private static File write(File file, int length) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[length]);
+        output.close();
+        return file;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,134 @@
+package com.telly.wasp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+
+/**
+ * Tests for {@link HttpDownloader}
+ */
+public class HttpDownloaderTest extends TestCase {
+    private static final byte[] BODY = "not really an image".getBytes();
+    private HttpServer server;
+    private String base;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/moved", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location", "/image");
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/image", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    // chunked, no content length
+                    exchange.sendResponseHeaders(200, 0);
+                    exchange.getResponseBody().write(BODY);
+                }
+                exchange.close();
+            }
+        });
+        server.createContext("/ranged", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range != null && "\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+                    int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                    exchange.getResponseHeaders().add("Content-Range",
+                            "bytes " + offset + "-" + (BODY.length - 1) + "/" + BODY.length);
+                    exchange.sendResponseHeaders(206, BODY.length - offset);
+                    exchange.getResponseBody().write(BODY, offset, BODY.length - offset);
+                } else {
+                    exchange.sendResponseHeaders(200, BODY.length);
+                    exchange.getResponseBody().write(BODY);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop(0);
+        super.tearDown();
+    }
+
+    public void testFollowsRedirectsAndReadsChunkedBodies() throws Exception {
+        HttpDownloader.Response response = HttpDownloader.get(base + "/moved", null, null);
+        assertFalse(response.isNotModified());
+        assertEquals(new String(BODY), read(response.getBody()));
+
+        Properties metadata = response.getMetadata();
+        assertEquals("\"v1\"", metadata.getProperty(HttpDownloader.META_ETAG));
+        assertTrue(HttpDownloader.isFresh(metadata));
+    }
+
+    public void testRevalidatesWithValidators() throws Exception {
+        Properties metadata = new Properties();
+        metadata.setProperty(HttpDownloader.META_ETAG, "\"v1\"");
+        metadata.setProperty(HttpDownloader.META_EXPIRES, "0");
+        assertFalse(HttpDownloader.isFresh(metadata));
+
+        HttpDownloader.Response response = HttpDownloader.get(base + "/image", metadata, null);
+        assertTrue(response.isNotModified());
+        response.discard();
+        assertTrue(HttpDownloader.isFresh(response.getMetadata()));
+    }
+
+    public void testResumesOnlyTheSameContent() throws Exception {
+        Properties partial = new Properties();
+        partial.setProperty(HttpDownloader.META_ETAG, "\"v1\"");
+        HttpDownloader.Response response = HttpDownloader.resume(base + "/ranged", partial, 4, null);
+        assertTrue(response.isPartial());
+        assertEquals(4, response.getOffset());
+        assertEquals(new String(BODY).substring(4), read(response.getBody()));
+
+        partial.setProperty(HttpDownloader.META_ETAG, "\"v0\"");
+        response = HttpDownloader.resume(base + "/ranged", partial, 4, null);
+        assertFalse(response.isPartial());
+        assertEquals(new String(BODY), read(response.getBody()));
+
+        partial.setProperty(HttpDownloader.META_ETAG, "W/\"v1\"");
+        assertFalse(HttpDownloader.canResume(partial));
+    }
+
+    public void testExpiration() throws Exception {
+        assertEquals(1000 + 60000, HttpDownloader.expiresAt("public, max-age=60", 0, 0, 1000));
+        assertEquals(1000, HttpDownloader.expiresAt("no-cache", 0, 0, 1000));
+        assertEquals(1000 + 5000, HttpDownloader.expiresAt(null, 15000, 10000, 1000));
+        assertEquals(-1, HttpDownloader.expiresAt(null, 0, 0, 1000));
+        assertTrue(HttpDownloader.isFresh(new Properties()));
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        input.close();
+        return output.toString();
+    }
+}
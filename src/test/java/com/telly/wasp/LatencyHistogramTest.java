@@ -0,0 +1,39 @@
+package com.telly.wasp;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBucketsArePowersOfTwoMicros() {
+        assertEquals(0, LatencyHistogram.bucketFor(999));
+        assertEquals(1, LatencyHistogram.bucketFor(TimeUnit.MICROSECONDS.toNanos(1)));
+        assertEquals(2, LatencyHistogram.bucketFor(TimeUnit.MICROSECONDS.toNanos(3)));
+        assertEquals(10, LatencyHistogram.bucketFor(TimeUnit.MILLISECONDS.toNanos(1)));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMillis(0.5));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(500));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(500, histogram.getMaxMillis());
+        // 3 ms falls into [2048, 4096) us
+        assertEquals(4, histogram.getPercentileMillis(0.5));
+        assertEquals(4, histogram.getPercentileMillis(0.99));
+        assertEquals(500, histogram.getPercentileMillis(1));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMillis());
+    }
+}
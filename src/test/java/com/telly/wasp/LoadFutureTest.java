@@ -0,0 +1,90 @@
+package com.telly.wasp;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests for {@link LoadFuture}
+ */
+public class LoadFutureTest extends TestCase {
+
+    public void testCompletesOnlyOnce() throws Exception {
+        LoadFuture<String> future = new LoadFuture<String>();
+        try {
+            future.get(10, TimeUnit.MILLISECONDS);
+            fail("should time out");
+        } catch (TimeoutException expected) {
+        }
+        assertTrue(future.set("a"));
+        assertFalse(future.fail(new Exception()));
+        assertFalse(future.cancel(false));
+        assertEquals("a", future.get());
+        assertTrue(future.isSuccessful());
+    }
+
+    public void testFailureAndCancellation() throws Exception {
+        LoadFuture<String> failed = new LoadFuture<String>();
+        failed.fail(new IllegalStateException());
+        try {
+            failed.get();
+            fail("should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        final boolean[] stopped = {false};
+        LoadFuture<String> cancelled = new LoadFuture<String>() {
+            @Override
+            protected void onCancelled() {
+                stopped[0] = true;
+            }
+        };
+        assertTrue(cancelled.cancel(true));
+        assertTrue(stopped[0]);
+        try {
+            cancelled.get();
+            fail("should be cancelled");
+        } catch (CancellationException expected) {
+        }
+        assertNull(cancelled.getNow());
+    }
+
+    public void testAllOfWaitsForEveryOne() throws Exception {
+        LoadFuture<String> a = new LoadFuture<String>();
+        LoadFuture<String> b = new LoadFuture<String>();
+        LoadFuture<String> c = new LoadFuture<String>();
+        LoadFuture<List<String>> all = LoadFuture.allOf(Arrays.asList(a, b, c));
+        final int[] notified = {0};
+        all.addListener(new LoadFuture.Listener<List<String>>() {
+            @Override
+            public void onDone(LoadFuture<List<String>> future) {
+                notified[0]++;
+            }
+        }, null);
+
+        a.set("a");
+        c.fail(new Exception());
+        assertFalse(all.isDone());
+        b.set("b");
+
+        assertEquals(Arrays.asList("a", "b", null), all.get(0, TimeUnit.MILLISECONDS));
+        assertEquals(1, notified[0]);
+    }
+
+    public void testCancellingAllOfCancelsPending() throws Exception {
+        LoadFuture<String> a = new LoadFuture<String>();
+        LoadFuture<String> b = new LoadFuture<String>();
+        a.set("a");
+        LoadFuture<List<String>> all = LoadFuture.allOf(Arrays.asList(a, b));
+        all.cancel(false);
+
+        assertTrue(b.isCancelled());
+        assertTrue(a.isSuccessful());
+    }
+}
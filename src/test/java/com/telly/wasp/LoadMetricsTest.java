@@ -0,0 +1,33 @@
+package com.telly.wasp;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LoadMetrics}
+ */
+public class LoadMetricsTest extends TestCase {
+
+    public void testRecordsOnlyPhasesThatRan() throws Exception {
+        LoadMetrics metrics = new LoadMetrics();
+        LoadMetrics.Sample sample = new LoadMetrics.Sample("http://a");
+        sample.addSince(LoadMetrics.Phase.QUEUE_WAIT, System.nanoTime());
+        sample.addSince(LoadMetrics.Phase.DISK, System.nanoTime());
+        metrics.record(sample);
+
+        assertTrue(sample.ran(LoadMetrics.Phase.DISK));
+        assertFalse(sample.ran(LoadMetrics.Phase.NETWORK));
+        assertEquals(1, metrics.getHistogram(LoadMetrics.Phase.QUEUE_WAIT).getCount());
+        assertEquals(1, metrics.getHistogram(LoadMetrics.Phase.DISK).getCount());
+        assertEquals(0, metrics.getHistogram(LoadMetrics.Phase.NETWORK).getCount());
+        assertEquals(0, metrics.getHistogram(LoadMetrics.Phase.DECODE).getCount());
+    }
+
+    public void testCountsOutOfMemoryErrors() throws Exception {
+        LoadMetrics metrics = new LoadMetrics();
+        metrics.outOfMemory();
+        assertEquals(1, metrics.getOutOfMemoryCount());
+        assertTrue(metrics.toString().contains("outOfMemory=1"));
+        metrics.reset();
+        assertEquals(0, metrics.getOutOfMemoryCount());
+    }
+}
@@ -0,0 +1,71 @@
+package com.telly.wasp;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for {@link LoadScheduler}
+ */
+public class LoadSchedulerTest extends TestCase {
+
+    public void testRunsHighestPriorityAndNewestFirst() throws Exception {
+        LoadScheduler scheduler = new LoadScheduler(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = new ArrayList<String>();
+        scheduler.execute(new LoadScheduler.Task(BitmapHelper.PRIORITY_NORMAL) {
+            @Override
+            protected void execute() {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        while (scheduler.getStartedCount() == 0) {
+            Thread.sleep(5);
+        }
+        scheduler.execute(new Recording("low", BitmapHelper.PRIORITY_LOW, order));
+        Recording old = new Recording("old", BitmapHelper.PRIORITY_NORMAL, order);
+        scheduler.execute(old);
+        scheduler.execute(new Recording("new", BitmapHelper.PRIORITY_NORMAL, order));
+        scheduler.execute(new Recording("high", BitmapHelper.PRIORITY_HIGH, order));
+        Recording bumped = new Recording("bumped", BitmapHelper.PRIORITY_LOW, order);
+        scheduler.execute(bumped);
+        assertTrue(scheduler.reschedule(bumped, BitmapHelper.PRIORITY_HIGH));
+        assertTrue(scheduler.remove(old));
+        assertEquals(4, scheduler.getQueueDepth());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.execute(new LoadScheduler.Task(BitmapHelper.PRIORITY_LOW - 1) {
+            @Override
+            protected void execute() {
+                done.countDown();
+            }
+        });
+        release.countDown();
+        done.await();
+
+        assertEquals(Arrays.asList("bumped", "high", "new", "low"), order);
+        assertEquals(6, scheduler.getStartedCount());
+    }
+
+    private static class Recording extends LoadScheduler.Task {
+        private final String name;
+        private final List<String> order;
+
+        Recording(String name, int priority, List<String> order) {
+            super(priority);
+            this.name = name;
+            this.order = order;
+        }
+
+        @Override
+        protected void execute() {
+            order.add(name);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.telly.wasp;
+
+import android.graphics.Bitmap;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link PersistQueue}
+ */
+public class PersistQueueTest extends TestCase {
+
+    public void testCoalescesAndDropsOldestOverBudget() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> written = new ArrayList<String>();
+        PersistQueue queue = new PersistQueue(null, 3) {
+            @Override
+            boolean write(String uri, Bitmap bitmap, Bitmap.CompressFormat format, int quality) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+                synchronized (written) {
+                    written.add(uri);
+                }
+                return true;
+            }
+        };
+        queue.enqueue("busy", null, 1, null, 0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        queue.enqueue("a", null, 1, null, 0);
+        queue.enqueue("b", null, 1, null, 0);
+        queue.enqueue("a", null, 1, null, 0);
+        queue.enqueue("c", null, 1, null, 0);
+        queue.enqueue("d", null, 1, null, 0);
+        assertEquals(3, queue.pendingBytes());
+        assertEquals(1, queue.coalescedCount());
+        assertEquals(1, queue.droppedCount());
+        assertFalse(queue.await(10, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(queue.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("busy", "a", "c", "d"), written);
+        assertEquals(4, queue.writtenCount());
+        assertEquals(0, queue.pendingBytes());
+    }
+
+    public void testTrimGivesUpOldestIncludingTheNewest() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        PersistQueue queue = new PersistQueue(null, 100) {
+            @Override
+            boolean write(String uri, Bitmap bitmap, Bitmap.CompressFormat format, int quality) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+                return true;
+            }
+        };
+        queue.enqueue("busy", null, 10, null, 0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        queue.enqueue("a", null, 10, null, 0);
+        queue.enqueue("b", null, 20, null, 0);
+        queue.enqueue("c", null, 30, null, 0);
+
+        assertEquals(10, queue.trimToSize(50));
+        assertEquals(50, queue.pendingBytes());
+        assertEquals(50, queue.trimToSize(0));
+        assertEquals(0, queue.pendingBytes());
+        assertEquals(3, queue.droppedCount());
+
+        release.countDown();
+        assertTrue(queue.await(5, TimeUnit.SECONDS));
+        assertEquals(1, queue.writtenCount());
+    }
+
+    public void testFlushWritesEverythingPending() throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        PersistQueue queue = new PersistQueue(null, 100) {
+            @Override
+            boolean write(String uri, Bitmap bitmap, Bitmap.CompressFormat format, int quality) {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread());
+                }
+                return true;
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            queue.enqueue("uri" + i, null, 1, null, 0);
+        }
+        queue.flush();
+        assertEquals(10, queue.writtenCount());
+        assertEquals(10, threads.size());
+        assertTrue(queue.await(0, TimeUnit.MILLISECONDS));
+    }
+}
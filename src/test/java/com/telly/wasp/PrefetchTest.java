@@ -0,0 +1,65 @@
+package com.telly.wasp;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link Prefetch}
+ */
+public class PrefetchTest extends TestCase {
+
+    public void testReportsProgressUntilDone() throws Exception {
+        Prefetch prefetch = new Prefetch(3);
+        final List<Integer> progress = new ArrayList<Integer>();
+        prefetch.setProgressListener(new Prefetch.ProgressListener() {
+            @Override
+            public void onProgress(Prefetch prefetch, int done, int total) {
+                assertEquals(3, total);
+                progress.add(done);
+            }
+        }, null);
+
+        prefetch.itemDone(true);
+        prefetch.itemDone(false);
+        assertFalse(prefetch.isDone());
+        prefetch.itemDone(true);
+
+        assertTrue(prefetch.isDone());
+        assertEquals(Integer.valueOf(2), prefetch.get());
+        assertEquals(1, prefetch.getFailedCount());
+        assertEquals(3, prefetch.getDoneCount());
+        assertEquals(3, progress.size());
+        assertEquals(Integer.valueOf(3), progress.get(2));
+    }
+
+    public void testEmptyGroupIsDoneRightAway() throws Exception {
+        assertEquals(Integer.valueOf(0), new Prefetch(0).get());
+    }
+
+    public void testCancelledGroupStopsReporting() {
+        final boolean[] cancelled = new boolean[1];
+        Prefetch prefetch = new Prefetch(2) {
+            @Override
+            protected void onCancelled() {
+                cancelled[0] = true;
+            }
+        };
+        final List<Integer> progress = new ArrayList<Integer>();
+        prefetch.setProgressListener(new Prefetch.ProgressListener() {
+            @Override
+            public void onProgress(Prefetch prefetch, int done, int total) {
+                progress.add(done);
+            }
+        }, null);
+
+        assertTrue(prefetch.cancel(false));
+        prefetch.itemDone(true);
+        prefetch.itemDone(true);
+
+        assertTrue(cancelled[0]);
+        assertTrue(prefetch.isCancelled());
+        assertTrue(progress.isEmpty());
+    }
+}
@@ -0,0 +1,49 @@
+package com.telly.wasp;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link TeeInputStream}
+ */
+public class TeeInputStreamTest extends TestCase {
+
+    public void testCopiesReadSkippedAndDrainedBytes() throws Exception {
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        TeeInputStream tee = new TeeInputStream(new ByteArrayInputStream(data), copy, null);
+        assertEquals(0, tee.read());
+        assertEquals(99, tee.read(new byte[99]));
+        assertEquals(5000, tee.skip(5000));
+        assertEquals(data.length, tee.drain());
+        tee.close();
+
+        assertTrue(Arrays.equals(data, copy.toByteArray()));
+    }
+
+    public void testStopsOnceCancelled() throws Exception {
+        final boolean[] cancelled = {false};
+        TeeInputStream tee = new TeeInputStream(new ByteArrayInputStream(new byte[100]), new ByteArrayOutputStream(),
+                new CancelToken() {
+                    @Override
+                    public boolean isCancelled() {
+                        return cancelled[0];
+                    }
+                });
+        assertEquals(10, tee.read(new byte[10]));
+        cancelled[0] = true;
+        try {
+            tee.read(new byte[10]);
+            fail("should be cancelled");
+        } catch (InterruptedIOException expected) {
+        }
+        assertEquals(10, tee.getCount());
+    }
+}
@@ -0,0 +1,301 @@
+package com.telly.wasp;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link UpdateableLruCache}
+ */
+public class UpdateableLruCacheTest extends TestCase {
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        UpdateableLruCache<String, String> cache = new UpdateableLruCache<String, String>(3);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        assertEquals("A", cache.get("a"));
+        cache.put("d", "D");
+
+        assertNull(cache.get("b"));
+        assertEquals(Arrays.asList("c", "a", "d"), new ArrayList<String>(cache.snapshot().keySet()));
+        assertEquals(1, cache.evictionCount());
+        assertEquals(3, cache.size());
+    }
+
+    public void testEntryRemovedContract() throws Exception {
+        final List<String> removed = new ArrayList<String>();
+        UpdateableLruCache<String, String> cache = new UpdateableLruCache<String, String>(2) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, String oldValue, String newValue) {
+                removed.add(evicted + ":" + key + "=" + oldValue + ">" + newValue);
+            }
+        };
+        cache.put("a", "A");
+        cache.put("a", "A2");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        cache.remove("b");
+
+        assertEquals(Arrays.asList("false:a=A>A2", "true:a=A2>null", "false:b=B>null"), removed);
+        assertEquals(1, cache.size());
+    }
+
+    public void testUpdateUsesPreviousSize() throws Exception {
+        final long[] weight = {1};
+        UpdateableLruCache<String, Object> cache = new UpdateableLruCache<String, Object>(10) {
+            @Override
+            protected long sizeOf(String key, Object value) {
+                return weight[0];
+            }
+
+            @Override
+            protected long previousSizeOf(String key, Object value) {
+                return 1;
+            }
+        };
+        Object value = new Object();
+        cache.put("a", value);
+        weight[0] = 4;
+        cache.put("a", value);
+
+        assertEquals(4, cache.size());
+    }
+
+    public void testLargeWeightsAndResize() throws Exception {
+        final long gigabyte = 1L << 30;
+        UpdateableLruCache<String, Long> cache = new UpdateableLruCache<String, Long>(8 * gigabyte) {
+            @Override
+            protected long sizeOf(String key, Long value) {
+                return value;
+            }
+        };
+        cache.put("a", 3 * gigabyte);
+        cache.put("b", 3 * gigabyte);
+        assertEquals(6 * gigabyte, cache.size());
+        assertEquals(0, cache.evictionCount());
+
+        cache.resize(4 * gigabyte);
+        assertEquals(4 * gigabyte, cache.maxSize());
+        assertEquals(3 * gigabyte, cache.size());
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+    }
+
+    public void testConcurrentReadsAndWrites() throws Exception {
+        final UpdateableLruCache<Integer, Integer> cache = new UpdateableLruCache<Integer, Integer>(64);
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 20000; i++) {
+                            Integer key = (i * 31 + seed) % 128;
+                            if (i % 4 == 0) {
+                                cache.put(key, key);
+                            } else {
+                                Integer value = cache.get(key);
+                                if (value != null && !value.equals(key)) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        assertEquals(0, failures.get());
+        assertTrue(cache.size() <= 64);
+        assertEquals(cache.size(), cache.snapshot().size());
+        assertEquals(cache.size(), cache.cacheSize());
+    }
+
+    public void testConcurrentMissesShareOneCreation() throws Exception {
+        final AtomicInteger creations = new AtomicInteger();
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final UpdateableLruCache<String, Object> cache = new UpdateableLruCache<String, Object>(10) {
+            @Override
+            protected Object create(String key) {
+                creations.incrementAndGet();
+                creating.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+                return new Object();
+            }
+        };
+        final int threads = 4;
+        final Object[] results = new Object[threads];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results[index] = cache.get("key");
+                }
+            });
+            workers[i].start();
+            if (i == 0) {
+                creating.await();
+            }
+        }
+        while (cache.coalescedCount() < threads - 1) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(1, creations.get());
+        assertEquals(1, cache.createCount());
+        for (Object result : results) {
+            assertSame(results[0], result);
+        }
+    }
+
+    public void testMissRacingALandedFlightDoesNotCreateAgain() throws Exception {
+        final AtomicInteger creations = new AtomicInteger();
+        final UpdateableLruCache<Object, Object> cache = new UpdateableLruCache<Object, Object>(10) {
+            @Override
+            protected Object create(Object key) {
+                creations.incrementAndGet();
+                return new Object();
+            }
+        };
+        final PausingKey key = new PausingKey();
+        final Object[] result = new Object[1];
+        Thread late = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = cache.get(key);
+            }
+        });
+        key.paused = late;
+        late.start();
+        // late missed and is about to start its flight, meanwhile another one runs entirely
+        assertTrue(key.reached.await(5, TimeUnit.SECONDS));
+        Object value = cache.get(key);
+        key.release.countDown();
+        late.join();
+
+        assertEquals(1, creations.get());
+        assertSame(value, result[0]);
+    }
+
+    public void testAdmissionPolicyProtectsHotEntries() throws Exception {
+        UpdateableLruCache<String, String> cache = new UpdateableLruCache<String, String>(2);
+        cache.setAdmissionPolicy(new TinyLfuAdmissionPolicy<String>());
+        cache.put("hot1", "H1");
+        cache.put("hot2", "H2");
+        for (int i = 0; i < 40; i++) {
+            // reads are buffered, snapshot() replays them into the policy
+            cache.get("hot1");
+            cache.get("hot2");
+            cache.snapshot();
+        }
+        for (int i = 0; i < 100; i++) {
+            cache.put("scan" + i, "S");
+        }
+
+        assertEquals("H1", cache.get("hot1"));
+        assertEquals("H2", cache.get("hot2"));
+        assertEquals(100, cache.rejectedCount());
+    }
+
+    public void testAdmissionPolicyRunsOnceEntriesTakeRoom() throws Exception {
+        UpdateableLruCache<String, String> cache = new UpdateableLruCache<String, String>(4) {
+            @Override
+            protected long sizeOf(String key, String value) {
+                return value.length();
+            }
+
+            @Override
+            protected long previousSizeOf(String key, String value) {
+                return value.length();
+            }
+        };
+        TinyLfuAdmissionPolicy<String> policy = new TinyLfuAdmissionPolicy<String>();
+        cache.setAdmissionPolicy(policy);
+        cache.put("hot1", "aa");
+        cache.put("hot2", "aa");
+        for (int i = 0; i < 40; i++) {
+            cache.get("hot1");
+            cache.get("hot2");
+            cache.snapshot();
+        }
+        // takes no room while loading, updates are not accesses
+        for (int i = 0; i < 10; i++) {
+            cache.put("loaded", "");
+        }
+        assertEquals(1, policy.frequency("loaded"));
+        cache.put("loaded", "aa");
+
+        assertEquals(1, cache.rejectedCount());
+        assertEquals("aa", cache.get("hot1"));
+        assertEquals("aa", cache.get("hot2"));
+        assertNull(cache.get("loaded"));
+        assertEquals(4, cache.size());
+    }
+
+    public void testWithoutAdmissionPolicyScanFlushesCache() throws Exception {
+        UpdateableLruCache<String, String> cache = new UpdateableLruCache<String, String>(2);
+        cache.put("hot1", "H1");
+        cache.put("hot2", "H2");
+        for (int i = 0; i < 40; i++) {
+            cache.get("hot1");
+            cache.get("hot2");
+        }
+        for (int i = 0; i < 100; i++) {
+            cache.put("scan" + i, "S");
+        }
+
+        assertNull(cache.get("hot1"));
+        assertNull(cache.get("hot2"));
+        assertEquals(0, cache.rejectedCount());
+    }
+
+    /**
+     * Pauses given thread on its second hash, i.e. right after missing the cache and
+     * before registering its flight
+     */
+    private static class PausingKey {
+        final CountDownLatch reached = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile Thread paused;
+        private int hashes;
+
+        @Override
+        public int hashCode() {
+            if (Thread.currentThread() == paused && ++hashes == 2) {
+                reached.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return 1;
+        }
+    }
+}